@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Takes a snapshot of a captured argument that can be serialized later on another thread. Primitive arrays are
+ * copied and immutable values are retained by reference. Any other value must be serialized immediately.
+ */
+class ArgumentSnapshot {
+
+    static final Object UNSUPPORTED = new Object();
+
+    private final Set<String> immutable;
+
+    ArgumentSnapshot(Collection<String> immutable) {
+        this.immutable = new HashSet<String>(Arrays.asList(String.class.getName(),
+                Boolean.class.getName(),
+                Character.class.getName(),
+                Byte.class.getName(),
+                Short.class.getName(),
+                Integer.class.getName(),
+                Long.class.getName(),
+                Float.class.getName(),
+                Double.class.getName(),
+                Class.class.getName()));
+        this.immutable.addAll(immutable);
+    }
+
+    Object of(Object value) {
+        if (value == null || value.getClass().isEnum() || immutable.contains(value.getClass().getName())) {
+            return value;
+        } else if (value.getClass().isArray() && value.getClass().getComponentType().isPrimitive()) {
+            int length = Array.getLength(value);
+            Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+            System.arraycopy(value, 0, copy, 0, length);
+            return copy;
+        } else {
+            return UNSUPPORTED;
+        }
+    }
+
+    Object[] of(Object[] values) {
+        Object[] copies = new Object[values.length];
+        for (int index = 0; index < values.length; index++) {
+            copies[index] = of(values[index]);
+            if (copies[index] == UNSUPPORTED) {
+                return null;
+            }
+        }
+        return copies;
+    }
+}
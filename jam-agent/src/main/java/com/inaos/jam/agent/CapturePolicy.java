@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import com.inaos.jam.observation.Spill;
+import com.inaos.jam.observation.Summary;
+
+import java.io.IOException;
+
+/**
+ * Replaces primitive arrays that exceed a size threshold before they are captured such that the memory that an
+ * observation requires is bounded regardless of its arguments. Such an array is either streamed in chunks to a spill
+ * file of the dispatcher or is only recorded by its {@link Summary}. If the dispatcher has no spill file, a summary
+ * is recorded.
+ */
+class CapturePolicy {
+
+    static final CapturePolicy UNBOUNDED = new CapturePolicy(-1, false);
+
+    private final long threshold;
+
+    private final boolean stream;
+
+    CapturePolicy(long threshold, boolean stream) {
+        this.threshold = threshold;
+        this.stream = stream;
+    }
+
+    Object apply(Object argument, DispatcherBase dispatcher, int id) {
+        if (threshold < 0 || Spill.sizeOf(argument) <= threshold) {
+            return argument;
+        }
+        if (stream) {
+            try {
+                Spill spill = dispatcher.spill(id, argument);
+                if (spill != null) {
+                    return spill;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return Summary.of(argument);
+    }
+
+    Object[] apply(Object[] arguments, DispatcherBase dispatcher, int id) {
+        Object[] applied = arguments;
+        for (int index = 0; index < arguments.length; index++) {
+            Object argument = apply(arguments[index], dispatcher, id);
+            if (argument != arguments[index]) {
+                if (applied == arguments) {
+                    applied = arguments.clone();
+                }
+                applied[index] = argument;
+            }
+        }
+        return applied;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import com.inaos.jam.boot.CircuitBreaker;
+import com.inaos.jam.boot.NativeRuntimeException;
+
+import net.bytebuddy.asm.Advice;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+class CircuitBreakerAdvice {
+
+    @Advice.OnMethodExit(onThrowable = NativeRuntimeException.class)
+    static void exit(@Index int index, @Advice.Thrown Throwable thrown) {
+        if (thrown != null) {
+            CircuitBreaker.failure(index);
+        }
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.PARAMETER)
+    @interface Index {
+
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.jar.asm.AnnotationVisitor;
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassVisitor;
+import net.bytebuddy.jar.asm.ClassWriter;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.jar.asm.Type;
+
+/**
+ * Creates an out-of-line copy of an advice class where all advice methods are public and are marked as not being
+ * inlined. When this copy is applied, Byte Buddy only weaves a static call to the advice methods into the accelerated
+ * method which therefore keeps its size and remains within the JIT compiler's inlining thresholds.
+ */
+class DelegatingAdvice extends ClassVisitor {
+
+    private static final String ON_METHOD_ENTER = Type.getDescriptor(Advice.OnMethodEnter.class),
+            ON_METHOD_EXIT = Type.getDescriptor(Advice.OnMethodExit.class);
+
+    private static final int NON_PUBLIC = Opcodes.ACC_PRIVATE | Opcodes.ACC_PROTECTED;
+
+    private DelegatingAdvice(ClassVisitor classVisitor) {
+        super(Opcodes.ASM6, classVisitor);
+    }
+
+    static byte[] make(byte[] binaryRepresentation) {
+        ClassReader classReader = new ClassReader(binaryRepresentation);
+        ClassWriter classWriter = new ClassWriter(classReader, 0);
+        classReader.accept(new DelegatingAdvice(classWriter), 0);
+        return classWriter.toByteArray();
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        super.visit(version, (access & ~NON_PUBLIC) | Opcodes.ACC_PUBLIC, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        super.visitInnerClass(name, outerName, innerName, (access & ~NON_PUBLIC) | Opcodes.ACC_PUBLIC);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        // All methods are made public as the advice methods and anything they call is now invoked from the target type.
+        return new AdviceMethodVisitor(super.visitMethod((access & ~NON_PUBLIC) | Opcodes.ACC_PUBLIC, name, descriptor, signature, exceptions));
+    }
+
+    private static class AdviceMethodVisitor extends MethodVisitor {
+
+        AdviceMethodVisitor(MethodVisitor methodVisitor) {
+            super(Opcodes.ASM6, methodVisitor);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            AnnotationVisitor annotationVisitor = super.visitAnnotation(descriptor, visible);
+            if (descriptor.equals(ON_METHOD_ENTER) || descriptor.equals(ON_METHOD_EXIT)) {
+                return new NonInliningAnnotationVisitor(annotationVisitor);
+            }
+            return annotationVisitor;
+        }
+    }
+
+    private static class NonInliningAnnotationVisitor extends AnnotationVisitor {
+
+        NonInliningAnnotationVisitor(AnnotationVisitor annotationVisitor) {
+            super(Opcodes.ASM6, annotationVisitor);
+        }
+
+        @Override
+        public void visit(String name, Object value) {
+            if (!name.equals("inline")) {
+                super.visit(name, value);
+            }
+        }
+
+        @Override
+        public void visitEnd() {
+            super.visit("inline", false);
+            super.visitEnd();
+        }
+    }
+}
@@ -18,51 +18,420 @@
 package com.inaos.jam.agent;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.inaos.jam.api.Acceleration;
 import com.inaos.jam.boot.JamAgentDispatcher;
 import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.Spill;
+import com.inaos.jam.observation.kryo.ByteBufferSerializer;
+import com.inaos.jam.observation.kryo.KryoManifest;
+import com.inaos.jam.observation.kryo.ObservationSerializer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 abstract class DispatcherBase extends JamAgentDispatcher {
 
-    protected final Kryo kryo = new Kryo();
+    private static final int SERIALIZER_QUEUE_SIZE = 1024;
+
+    private static final long SERIALIZER_DRAIN_TIMEOUT = 10 * 1000; // 10 seconds
+
+    private static volatile KryoManifest manifest;
+
+    private static volatile CapturePolicy capture = CapturePolicy.UNBOUNDED;
+
+    private static volatile CapturePolicy[] captures = new CapturePolicy[0];
+
+    protected final Kryo kryo = newKryo();
+
+    private final ThreadLocal<Kryo> serializerKryo = new ThreadLocal<Kryo>() {
+        @Override
+        protected Kryo initialValue() {
+            return newKryo();
+        }
+    };
+
+    private final Object spillLock = new Object();
+
+    private volatile ExecutorService serializers;
+
+    private volatile ArgumentSnapshot snapshot;
+
+    private volatile boolean rawArrays;
+
+    private volatile boolean deltas;
+
+    private volatile ShapeStrata strata;
+
+    private volatile OverheadGovernor governor;
+
+    private volatile PressureGuard guard;
+
+    /**
+     * Registers the classes of a manifest for all Kryo instances that are created subsequently. Must be called before
+     * a dispatcher is created.
+     */
+    static void register(KryoManifest manifest) {
+        DispatcherBase.manifest = manifest;
+    }
+
+    /**
+     * Registers the capture policy of an observation id or the default policy of all other ids if {@code id} is
+     * {@code -1}. A negative threshold captures all arguments in full.
+     */
+    static synchronized void capture(int id, long threshold, boolean stream) {
+        CapturePolicy policy = new CapturePolicy(threshold, stream);
+        if (id == -1) {
+            capture = policy;
+        } else {
+            CapturePolicy[] captures = Arrays.copyOf(DispatcherBase.captures, Math.max(id + 1, DispatcherBase.captures.length));
+            captures[id] = policy;
+            DispatcherBase.captures = captures;
+        }
+    }
+
+    private static CapturePolicy captureOf(int id) {
+        CapturePolicy[] captures = DispatcherBase.captures;
+        CapturePolicy policy = id < captures.length ? captures[id] : null;
+        return policy == null ? capture : policy;
+    }
+
+    static Kryo newKryo() {
+        return newKryo(false);
+    }
 
-    protected boolean suppressSample(String name) {
+    /**
+     * Creates a Kryo instance where observations are written with a dictionary of their strings if {@code dictionary}
+     * is set. Such an instance must only write a single stream that is read from its beginning.
+     */
+    static Kryo newKryo(boolean dictionary) {
+        KryoManifest manifest = DispatcherBase.manifest;
+        Kryo kryo;
+        if (manifest != null) {
+            kryo = manifest.newKryo();
+        } else {
+            kryo = new Kryo();
+            kryo.addDefaultSerializer(ByteBuffer.class, new ByteBufferSerializer());
+        }
+        kryo.addDefaultSerializer(Observation.class, new ObservationSerializer(dictionary));
+        return kryo;
+    }
+
+    /**
+     * Stores the registration manifest next to a sample file such that readers can resolve registered classes. When
+     * appending to an existing sample file, its manifest must not change.
+     */
+    static void writeManifest(File sample, boolean append) throws IOException {
+        KryoManifest manifest = DispatcherBase.manifest;
+        File sidecar = KryoManifest.sidecarOf(sample);
+        if (append) {
+            KryoManifest existing = KryoManifest.forSample(sample);
+            if (manifest == null ? existing != null : !manifest.equals(existing)) {
+                throw new IllegalStateException("Cannot append to sample file with a different registration manifest: " + sample);
+            }
+        }
+        if (manifest != null) {
+            manifest.write(sidecar);
+        } else if (sidecar.exists() && !sidecar.delete()) {
+            throw new IOException("Could not delete stale manifest: " + sidecar);
+        }
+    }
+
+    /**
+     * Defers the serialization of captured arguments to a pool of background threads. The calling thread only copies
+     * primitive arrays and retains immutable values. If the pool's queue is full, the calling thread serializes.
+     */
+    void defer(int threads, String[] immutable) {
+        ThreadPoolExecutor serializers = new ThreadPoolExecutor(threads,
+                threads,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(SERIALIZER_QUEUE_SIZE),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "jam-serializer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        snapshot = new ArgumentSnapshot(Arrays.asList(immutable));
+        this.serializers = serializers;
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+    }
+
+    /**
+     * Waits for all deferred observations to be committed. Returns immediately if serialization is not deferred.
+     */
+    protected void drain() {
+        ExecutorService serializers = this.serializers;
+        if (serializers == null) {
+            return;
+        }
+        serializers.shutdown();
+        try {
+            if (!serializers.awaitTermination(SERIALIZER_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                System.err.println("Dropped pending observations after waiting for serialization");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes {@code double}, {@code float}, {@code int} and {@code long} arrays as raw little-endian blocks that
+     * readers can view as typed buffers without deserialization.
+     */
+    void rawArrays(boolean rawArrays) {
+        this.rawArrays = rawArrays;
+    }
+
+    /**
+     * Writes transformed arguments as a delta against the arguments if that is smaller, see {@link com.inaos.jam.observation.kryo.Deltas}. Readers must
+     * resolve such values against their observation.
+     */
+    void deltas(boolean deltas) {
+        this.deltas = deltas;
+    }
+
+    /**
+     * Samples at most {@code quota} observations of every shape of arguments, see {@link ShapeStrata}.
+     */
+    void stratify(int quota) {
+        strata = new ShapeStrata(quota);
+    }
+
+    protected boolean isStratified() {
+        return strata != null;
+    }
+
+    protected boolean suppressSample(int id) {
         return false;
     }
 
+    /**
+     * Decides if an observation is suppressed once its arguments are attached. Only invoked if sampling is stratified.
+     */
+    protected boolean suppressShape(int id, Object[] arguments) {
+        return !strata.admit(id, arguments);
+    }
+
+    /**
+     * Returns the quota of an observation's shape if the observation is suppressed after its shape was admitted.
+     */
+    protected void revokeShape(int id, Object[] arguments) {
+        strata.revoke(id, arguments);
+    }
+
+    /**
+     * Returns the file to which observations are written or {@code null} if this dispatcher does not write a file.
+     */
+    protected File sampleFile() {
+        return null;
+    }
+
+    /**
+     * Returns the file to which arguments are streamed if their capture policy requires it or {@code null} if this
+     * dispatcher does not support streaming.
+     */
+    protected File spillFile() {
+        return null;
+    }
+
+    /**
+     * Appends an array to the spill file of this dispatcher and returns its reference or {@code null} if this
+     * dispatcher does not support streaming. Appends of concurrent observations are serialized per dispatcher.
+     */
+    Spill spill(int id, Object array) throws IOException {
+        File spill = spillFile();
+        if (spill == null) {
+            return null;
+        }
+        Spill reference;
+        synchronized (spillLock) {
+            reference = Spill.write(spill, array);
+        }
+        spilled(id, Spill.sizeOf(array));
+        return reference;
+    }
+
+    /**
+     * Invoked after an argument of an observation with the given id was appended to the spill file.
+     */
+    protected void spilled(int id, long bytes) {
+    }
+
+    /**
+     * Samples calls by a probability that keeps the CPU time spent on observations at a {@code target} fraction of the
+     * process's CPU time.
+     */
+    OverheadGovernor govern(double target) {
+        OverheadGovernor governor = new OverheadGovernor(target);
+        governor.start();
+        this.governor = governor;
+        return governor;
+    }
+
+    /**
+     * Suspends sampling while the heap or the volume of {@link #sampleFile()} is filled above the high-water marks
+     * until the usage falls below the low-water marks, given in percent.
+     */
+    PressureGuard guard(int heapHigh, int heapLow, int diskHigh, int diskLow) {
+        PressureGuard guard = new PressureGuard(heapHigh, heapLow, diskHigh, diskLow, sampleFile());
+        guard.start();
+        this.guard = guard;
+        return guard;
+    }
+
     @Override
-    protected Object doObserve(String name) {
-        if (suppressSample(name)) {
+    protected Object doObserve(int id, String name) {
+        OverheadGovernor governor = this.governor;
+        if (governor == null) {
+            return startObservation(id, name);
+        } else if (!governor.sample()) {
             return null;
         }
-        return new ObservationBuilder(name);
+        long start = governor.nanos();
+        try {
+            return startObservation(id, name);
+        } finally {
+            governor.spent(governor.nanos() - start);
+        }
     }
 
     @Override
     protected void doAttach(Object observation, String name, Class<?> type, Object argument) {
+        OverheadGovernor governor = this.governor;
+        if (governor == null) {
+            attachValue(observation, name, type, argument);
+            return;
+        }
+        long start = governor.nanos();
+        try {
+            attachValue(observation, name, type, argument);
+        } finally {
+            governor.spent(governor.nanos() - start);
+        }
+    }
+
+    @Override
+    protected void doAttach(Object observation, String name, Class<?>[] types, Object[] arguments) {
+        OverheadGovernor governor = this.governor;
+        if (governor == null) {
+            attachValue(observation, name, types, arguments);
+            return;
+        }
+        long start = governor.nanos();
+        try {
+            attachValue(observation, name, types, arguments);
+        } finally {
+            governor.spent(governor.nanos() - start);
+        }
+    }
+
+    @Override
+    protected void doCommit(Object observation) {
+        OverheadGovernor governor = this.governor;
+        if (governor == null) {
+            commitObservation(observation);
+            return;
+        }
+        long start = governor.nanos();
+        try {
+            commitObservation(observation);
+        } finally {
+            governor.spent(governor.nanos() - start);
+        }
+    }
+
+    private Object startObservation(int id, String name) {
+        PressureGuard guard = this.guard;
+        if (guard != null && guard.suppress() || suppressSample(id)) {
+            return null;
+        }
+        return new ObservationBuilder(id, name, rawArrays, deltas);
+    }
+
+    private void attachValue(Object observation, String name, Class<?> type, Object argument) {
         if (!(observation instanceof ObservationBuilder)) {
             throw new IllegalArgumentException("Unexpected observation type: " + observation);
         }
         ObservationBuilder builder = (ObservationBuilder) observation;
-        builder.serialize(kryo, name, type, argument);
+        if (isSuppressed(builder, name, new Object[]{argument})) {
+            return;
+        }
+        argument = captureOf(builder.id()).apply(argument, this, builder.id());
+        ArgumentSnapshot snapshot = this.snapshot;
+        if (snapshot == null) {
+            builder.serialize(kryo, name, type, argument);
+        } else if (!builder.defer(snapshot, name, type, argument)) {
+            builder.serialize(serializerKryo.get(), name, type, argument);
+        }
     }
 
-    @Override
-    protected void doAttach(Object observation, String name, Class<?>[] types, Object[] arguments) {
+    private void attachValue(Object observation, String name, Class<?>[] types, Object[] arguments) {
         if (!(observation instanceof ObservationBuilder)) {
             throw new IllegalArgumentException("Unexpected observation type: " + observation);
         }
         ObservationBuilder builder = (ObservationBuilder) observation;
-        builder.serialize(kryo, name, types, arguments);
+        if (isSuppressed(builder, name, arguments)) {
+            return;
+        }
+        arguments = captureOf(builder.id()).apply(arguments, this, builder.id());
+        ArgumentSnapshot snapshot = this.snapshot;
+        if (snapshot == null) {
+            builder.serialize(kryo, name, types, arguments);
+        } else if (!builder.defer(snapshot, name, types, arguments)) {
+            builder.serialize(serializerKryo.get(), name, types, arguments);
+        }
     }
 
-    @Override
-    protected void doCommit(Object observation) {
+    private void commitObservation(Object observation) {
         if (!(observation instanceof ObservationBuilder)) {
             throw new IllegalArgumentException("Unexpected observation type: " + observation);
         }
-        doCommit(((ObservationBuilder) observation).toObservation());
+        final ObservationBuilder builder = (ObservationBuilder) observation;
+        if (builder.isSuppressed()) {
+            return;
+        }
+        ExecutorService serializers = this.serializers;
+        if (serializers == null) {
+            doCommit(builder.id(), builder.toObservation(kryo));
+        } else {
+            serializers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    OverheadGovernor governor = DispatcherBase.this.governor;
+                    if (governor == null) {
+                        doCommit(builder.id(), builder.toObservation(serializerKryo.get()));
+                        return;
+                    }
+                    long start = governor.nanos();
+                    doCommit(builder.id(), builder.toObservation(serializerKryo.get()));
+                    governor.spent(governor.nanos() - start);
+                }
+            });
+        }
+    }
 
+    private boolean isSuppressed(ObservationBuilder builder, String name, Object[] arguments) {
+        if (!builder.isSuppressed() && strata != null && name.equals(Acceleration.ARGUMENTS) && suppressShape(builder.id(), arguments)) {
+            builder.suppress();
+        }
+        return builder.isSuppressed();
     }
 
-    protected abstract void doCommit(Observation observation);
+    protected abstract void doCommit(int id, Observation observation);
 }
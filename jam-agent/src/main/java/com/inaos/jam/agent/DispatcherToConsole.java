@@ -18,20 +18,18 @@
 package com.inaos.jam.agent;
 
 import java.util.Arrays;
-import java.util.Map;
 
 import com.inaos.jam.observation.Observation;
-import com.inaos.jam.observation.SerializedValue;
 
 public class DispatcherToConsole extends DispatcherBase {
 
     @Override
-    protected void doCommit(Observation observation) {
+    protected void doCommit(int id, Observation observation) {
         StringBuilder sb = new StringBuilder().append("Observation for '").append(observation.getName()).append("'");
-        for (Map.Entry<String, SerializedValue> entry : observation.getValues().entrySet()) {
+        for (int index = 0; index < observation.size(); index++) {
             sb.append("\n")
-                    .append(" -> Recorded value with key '").append(entry.getKey()).append("'")
-                    .append(" and arguments of types ").append(Arrays.toString(entry.getValue().getTypes()));
+                    .append(" -> Recorded value with key '").append(observation.key(index)).append("'")
+                    .append(" and arguments of types ").append(Arrays.toString(observation.value(index).getTypes()));
         }
         System.out.println(sb.toString());
     }
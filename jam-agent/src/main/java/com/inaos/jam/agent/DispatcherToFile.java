@@ -17,56 +17,511 @@
 
 package com.inaos.jam.agent;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.observation.BlockFormat;
 import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.Payloads;
+import com.inaos.jam.observation.kryo.ObservationSerializer;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class DispatcherToFile extends DispatcherBase {
 
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static final int PENDING_BLOCKS = 16;
+
+    private static final long COMPRESSION_DRAIN_TIMEOUT = 10 * 1000; // 10 seconds
+
     private final File target;
 
     private final long maxObservationCount, maxObservationBytes;
 
-    private final ConcurrentMap<String, AtomicLong> observationCount = new ConcurrentHashMap<String, AtomicLong>(), observationBytes = new ConcurrentHashMap<String, AtomicLong>();
+    private volatile Budget[] budgets = new Budget[0];
+
+    private final ThreadLocal<Shard> shards;
+
+    private final List<Shard> segments = new ArrayList<Shard>();
+
+    private final byte codec;
+
+    private final ThreadPoolExecutor compressor;
+
+    private final List<Blocks> blocks = new CopyOnWriteArrayList<Blocks>();
+
+    private final AtomicLong droppedBlocks = new AtomicLong();
+
+    private final Output record = new Output(4096, -1);
+
+    private final Payloads payloads = new Payloads();
+
+    private final Kryo records;
+
+    private final File spill;
+
+    private final Blocks shared;
 
     public DispatcherToFile(File target, long maxObservationCount, long maxObservationBytes) {
+        this(target, maxObservationCount, maxObservationBytes, false);
+    }
+
+    public DispatcherToFile(File target, long maxObservationCount, long maxObservationBytes, boolean sharded) {
+        this(target, maxObservationCount, maxObservationBytes, sharded, null);
+    }
+
+    /**
+     * If {@code sharded}, every writing thread appends to its own segment file {@code <target>.<index>} where every
+     * observation is preceded by the {@link System#nanoTime()} of its commit and the segment's sequence number. The
+     * segments can be merged into a single sample file by the utility's {@code --merge} option.
+     * <p>
+     * Payloads that were already written to the same file are replaced by references to their content hash which
+     * are resolved by {@link Payloads} when reading.
+     * <p>
+     * If a {@code compression} codec is named, observations are grouped into blocks of about one megabyte that are
+     * compressed and appended by a background thread in the {@link BlockFormat}. Rather than blocking the application,
+     * a block is dropped if the background thread falls behind by more than {@value #PENDING_BLOCKS} blocks.
+     * <p>
+     * Names, keys and type names are written once per file and are referenced by a dictionary id subsequently. When
+     * appending to an existing file, strings are written inline as the file's dictionary is not known. After failing
+     * to write an observation or losing a block, strings are written inline, too.
+     * <p>
+     * Arguments that are streamed by their capture policy are appended to {@code <target>.spill} and count against
+     * the byte budget of their observation.
+     */
+    public DispatcherToFile(File target, long maxObservationCount, long maxObservationBytes, boolean sharded, String compression) {
         this.target = target;
         this.maxObservationCount = maxObservationCount;
         this.maxObservationBytes = maxObservationBytes;
+        if (compression == null) {
+            codec = BlockFormat.STORED;
+            compressor = null;
+        } else {
+            codec = BlockFormat.codec(compression);
+            compressor = new ThreadPoolExecutor(1,
+                    1,
+                    0,
+                    TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(PENDING_BLOCKS),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "jam-compressor");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    },
+                    new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                            // A writer never waits for the compressor, a block that does not fit the queue is dropped.
+                            ((Blocks.Block) runnable).drop();
+                            long dropped = droppedBlocks.incrementAndGet();
+                            if (executor.isShutdown()) {
+                                System.err.println("Dropped block that was flushed after shutting down compression");
+                            } else if (dropped == 1) {
+                                System.err.println("Dropped block as compression is falling behind, further drops are reported on shutdown");
+                            }
+                        }
+                    });
+        }
+        if (sharded) {
+            final AtomicInteger index = new AtomicInteger();
+            shards = new ThreadLocal<Shard>() {
+                @Override
+                protected Shard initialValue() {
+                    Shard shard = new Shard(new File(DispatcherToFile.this.target.getPath() + "." + index.getAndIncrement()));
+                    synchronized (segments) {
+                        // Segments of terminated threads are closed such that short-lived threads do not keep files open.
+                        for (Iterator<Shard> iterator = segments.iterator(); iterator.hasNext(); ) {
+                            Shard segment = iterator.next();
+                            if (!segment.owner.isAlive()) {
+                                segment.close();
+                                iterator.remove();
+                                blocks.remove(segment.blocks);
+                            }
+                        }
+                        segments.add(shard);
+                    }
+                    return shard;
+                }
+            };
+        } else {
+            shards = null;
+        }
+        if (compressor != null || sharded) {
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    close();
+                }
+            });
+        }
+        shared = !sharded && compressor != null ? new Blocks(target) : null;
+        records = newKryo(target.length() == 0);
+        spill = new File(target.getPath() + ".spill");
+        try {
+            writeManifest(target, (sharded ? new File(target.getPath() + ".0") : target).length() > 0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write manifest for " + target, e);
+        }
+    }
+
+    private void close() {
+        drain();
+        synchronized (segments) {
+            for (Shard segment : segments) {
+                segment.close();
+            }
+        }
+        if (compressor == null) {
+            return;
+        }
+        for (Blocks blocks : this.blocks) {
+            blocks.flush();
+        }
+        compressor.shutdown();
+        try {
+            if (!compressor.awaitTermination(COMPRESSION_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                System.err.println("Dropped pending blocks after waiting for compression");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long dropped = droppedBlocks.get();
+        if (dropped > 0) {
+            System.err.println("Dropped " + dropped + " blocks of " + target + " as compression was falling behind");
+        }
     }
 
     @Override
-    protected boolean suppressSample(String name) {
-        if (!observationCount.containsKey(name)) {
-            observationCount.putIfAbsent(name, new AtomicLong());
+    protected File sampleFile() {
+        return target;
+    }
+
+    @Override
+    protected File spillFile() {
+        return spill;
+    }
+
+    @Override
+    protected void spilled(int id, long bytes) {
+        // Spilled arrays are bounded by the same budget as the observations that refer to them.
+        budget(id).bytes.addAndGet(bytes);
+    }
+
+    @Override
+    protected boolean suppressSample(int id) {
+        Budget budget = budget(id);
+        if (isStratified()) {
+            // Only observations that are admitted by their shape count against the budget.
+            return budget.count.get() >= maxObservationCount || budget.bytes.get() > maxObservationBytes;
         }
-        if (!observationBytes.containsKey(name)) {
-            observationBytes.putIfAbsent(name, new AtomicLong());
+        return budget.count.incrementAndGet() > maxObservationCount || budget.bytes.get() > maxObservationBytes;
+    }
+
+    @Override
+    protected boolean suppressShape(int id, Object[] arguments) {
+        // The quota of a shape is only consumed by observations that the budget admits.
+        Budget budget = budget(id);
+        if (budget.count.get() >= maxObservationCount || super.suppressShape(id, arguments)) {
+            return true;
+        } else if (budget.count.incrementAndGet() > maxObservationCount) {
+            revokeShape(id, arguments);
+            return true;
         }
-        AtomicLong sum = observationBytes.get(name);
-        return observationCount.get(name).incrementAndGet() > maxObservationCount || sum.get() > maxObservationBytes;
+        return false;
     }
 
     @Override
-    protected synchronized void doCommit(Observation observation) {
-        AtomicLong sum = observationBytes.get(observation.getName());
+    protected void doCommit(int id, Observation observation) {
+        if (shards == null) {
+            doCommitShared(id, observation);
+        } else {
+            doCommitSharded(id, observation);
+        }
+    }
+
+    private synchronized void doCommitShared(int id, Observation observation) {
+        if (shared != null && shared.recover()) {
+            payloads.reset();
+            inline(records);
+        }
+        observation = payloads.deduplicate(observation);
+        if (shared != null) {
+            record.clear();
+            records.writeObject(record, observation);
+            shared.append(record);
+            payloads.written(observation);
+            budget(id).bytes.addAndGet(record.position());
+            return;
+        }
         try {
-            Output out = new Output(new ByteCountingStream(new FileOutputStream(target, true), sum));
+            origin(records, target.length());
+            Output out = new Output(new ByteCountingStream(new FileOutputStream(target, true), budget(id).bytes));
             try {
-                kryo.writeObject(out, observation);
+                records.writeObject(out, observation);
             } finally {
                 out.close();
             }
+            payloads.written(observation);
+        } catch (IOException e) {
+            e.printStackTrace();
+            inline(records);
+        } catch (KryoException e) {
+            e.printStackTrace();
+            inline(records);
+        }
+    }
+
+    private void doCommitSharded(int id, Observation observation) {
+        Shard shard = shards.get();
+        if (shard.blocks != null && shard.blocks.recover()) {
+            shard.payloads.reset();
+            inline(shard.kryo);
+        }
+        observation = shard.payloads.deduplicate(observation);
+        Output out = shard.buffer;
+        out.clear();
+        if (shard.blocks == null) {
+            origin(shard.kryo, shard.length);
+        }
+        out.writeLong(System.nanoTime());
+        out.writeLong(shard.sequence++);
+        shard.kryo.writeObject(out, observation);
+        if (shard.blocks != null) {
+            shard.blocks.append(out);
+            shard.payloads.written(observation);
+            budget(id).bytes.addAndGet(out.position());
+            return;
+        }
+        try {
+            shard.write(out);
+            shard.payloads.written(observation);
+            budget(id).bytes.addAndGet(out.position());
         } catch (IOException e) {
             e.printStackTrace();
+            inline(shard.kryo);
+        }
+    }
+
+    // Strings that a lost observation defined are unknown to a reader such that they cannot be referenced.
+    private static void inline(Kryo kryo) {
+        ((ObservationSerializer) kryo.getDefaultSerializer(Observation.class)).inline();
+    }
+
+    // Raw arrays are aligned within an uncompressed file such that a mapped file can view them.
+    private static void origin(Kryo kryo, long origin) {
+        ((ObservationSerializer) kryo.getDefaultSerializer(Observation.class)).origin(origin);
+    }
+
+    private Budget budget(int id) {
+        Budget[] budgets = this.budgets;
+        if (id < budgets.length) {
+            return budgets[id];
+        }
+        synchronized (this) {
+            budgets = this.budgets;
+            if (id >= budgets.length) {
+                Budget[] resized = new Budget[Math.max(id + 1, budgets.length * 2)];
+                System.arraycopy(budgets, 0, resized, 0, budgets.length);
+                for (int index = budgets.length; index < resized.length; index++) {
+                    resized[index] = new Budget();
+                }
+                this.budgets = budgets = resized;
+            }
+            return budgets[id];
+        }
+    }
+
+    private class Shard {
+
+        final File file;
+
+        final Kryo kryo;
+
+        final Output buffer = new Output(4096, -1);
+
+        final Payloads payloads = new Payloads();
+
+        final Blocks blocks;
+
+        final Thread owner = Thread.currentThread();
+
+        private FileOutputStream out;
+
+        long sequence, length;
+
+        Shard(File file) {
+            this.file = file;
+            length = file.length();
+            kryo = newKryo(file.length() == 0);
+            blocks = compressor == null ? null : new Blocks(file);
+        }
+
+        synchronized void write(Output record) throws IOException {
+            if (out == null) {
+                out = new FileOutputStream(file, true);
+            }
+            try {
+                out.write(record.getBuffer(), 0, record.position());
+                length += record.position();
+            } catch (IOException e) {
+                length = file.length();
+                throw e;
+            }
+        }
+
+        synchronized void close() {
+            if (blocks != null) {
+                blocks.flush();
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * Once a block is lost, the following blocks might refer to payloads that it contained. Such blocks are discarded
+     * until the writer {@link #recover() recovers} by no longer referring to anything that it has written before.
+     */
+    private class Blocks {
+
+        private final File file;
+
+        private final Output buffer = new Output(BLOCK_SIZE + 4096, -1);
+
+        private volatile boolean lost;
+
+        private volatile int failedGeneration = -1;
+
+        private int generation;
+
+        Blocks(File file) {
+            if (file.length() > 0 && !isBlockFormat(file)) {
+                throw new IllegalStateException("Cannot append compressed blocks to uncompressed sample file: " + file);
+            }
+            this.file = file;
+            blocks.add(this);
+        }
+
+        synchronized void append(Output record) {
+            buffer.writeBytes(record.getBuffer(), 0, record.position());
+            if (buffer.position() >= BLOCK_SIZE) {
+                flush();
+            }
+        }
+
+        synchronized void flush() {
+            if (buffer.position() == 0) {
+                return;
+            }
+            if (lost) {
+                buffer.clear();
+                droppedBlocks.incrementAndGet();
+                return;
+            }
+            byte[] bytes = buffer.toBytes();
+            buffer.clear();
+            compressor.execute(new Block(bytes, generation));
         }
+
+        /**
+         * Returns {@code true} if a block was lost such that the writer must not refer to anything it has written
+         * before. Buffered content is discarded as it might refer to the lost block.
+         */
+        synchronized boolean recover() {
+            if (!lost) {
+                return false;
+            }
+            buffer.clear();
+            generation++;
+            lost = false;
+            return true;
+        }
+
+        private class Block implements Runnable {
+
+            private final byte[] bytes;
+
+            private final int generation;
+
+            Block(byte[] bytes, int generation) {
+                this.bytes = bytes;
+                this.generation = generation;
+            }
+
+            void drop() {
+                lost = true;
+            }
+
+            @Override
+            public void run() {
+                if (generation == failedGeneration) {
+                    droppedBlocks.incrementAndGet();
+                    return;
+                }
+                byte[] block = BlockFormat.encode(codec, bytes, bytes.length);
+                try {
+                    OutputStream out = new FileOutputStream(file, true);
+                    try {
+                        if (file.length() == 0) {
+                            out.write(BlockFormat.header());
+                        }
+                        out.write(block);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    failedGeneration = generation;
+                    lost = true;
+                }
+            }
+        }
+    }
+
+    private static boolean isBlockFormat(File file) {
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                byte[] header = BlockFormat.header();
+                in.readFully(header);
+                return BlockFormat.isBlockFormat(header);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static class Budget {
+
+        final AtomicLong count = new AtomicLong(), bytes = new AtomicLong();
     }
 
     private static class ByteCountingStream extends OutputStream {
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.boot.NativeRuntimeException;
+import com.inaos.jam.observation.Observation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the most recent observations in a preallocated off-heap ring buffer where the oldest observations are
+ * overwritten. Nothing is written to disk until the buffer is dumped as a sample file, either on request or when
+ * native code raises an error. Automatic dumps are written asynchronously and at most once per interval.
+ */
+public class DispatcherToRing extends DispatcherBase implements DispatcherToRingMBean {
+
+    private static final long AUTOMATIC_DUMP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    private final ByteBuffer buffer;
+
+    private final byte[] length = new byte[4];
+
+    private final File dumpFolder;
+
+    private final ThreadLocal<Kryo> kryos = new ThreadLocal<Kryo>() {
+        @Override
+        protected Kryo initialValue() {
+            return newKryo();
+        }
+    };
+
+    private int head, used;
+
+    private long records, overwritten, dumps;
+
+    private final AtomicBoolean dumping = new AtomicBoolean();
+
+    private final AtomicLong lastDump = new AtomicLong(System.nanoTime() - AUTOMATIC_DUMP_INTERVAL);
+
+    public DispatcherToRing(int capacity, File dumpFolder) {
+        buffer = ByteBuffer.allocateDirect(capacity);
+        this.dumpFolder = dumpFolder;
+    }
+
+    @Override
+    protected void doCommit(int id, Observation observation) {
+        Output out = new Output(4096, -1);
+        kryos.get().writeObject(out, observation);
+        write(out.getBuffer(), out.position());
+    }
+
+    private synchronized void write(byte[] payload, int size) {
+        if (size + 4 > buffer.capacity()) {
+            overwritten++;
+            return;
+        }
+        while (used + size + 4 > buffer.capacity()) {
+            read(head, length, 4);
+            int evicted = 4 + toInt(length);
+            head = (head + evicted) % buffer.capacity();
+            used -= evicted;
+            records--;
+            overwritten++;
+        }
+        int tail = (head + used) % buffer.capacity();
+        length[0] = (byte) (size >>> 24);
+        length[1] = (byte) (size >>> 16);
+        length[2] = (byte) (size >>> 8);
+        length[3] = (byte) size;
+        put(tail, length, 4);
+        put((tail + 4) % buffer.capacity(), payload, size);
+        used += size + 4;
+        records++;
+    }
+
+    private void put(int position, byte[] bytes, int size) {
+        int first = Math.min(size, buffer.capacity() - position);
+        ByteBuffer target = buffer.duplicate();
+        target.position(position);
+        target.put(bytes, 0, first);
+        if (first < size) {
+            target.position(0);
+            target.put(bytes, first, size - first);
+        }
+    }
+
+    private void read(int position, byte[] bytes, int size) {
+        int first = Math.min(size, buffer.capacity() - position);
+        ByteBuffer source = buffer.duplicate();
+        source.position(position);
+        source.get(bytes, 0, first);
+        if (first < size) {
+            source.position(0);
+            source.get(bytes, first, size - first);
+        }
+    }
+
+    private static int toInt(byte[] bytes) {
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+    }
+
+    @Override
+    protected void onNativeError(NativeRuntimeException exception) {
+        if (dumpFolder == null) {
+            return;
+        }
+        // Native errors are raised on application threads which must not contend on the ring's monitor.
+        long last = lastDump.get(), now = System.nanoTime();
+        if (now - last < AUTOMATIC_DUMP_INTERVAL || !lastDump.compareAndSet(last, now) || !dumping.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread("jam-ring-dump") {
+            @Override
+            public void run() {
+                try {
+                    dump(new File(dumpFolder, "jam-ring-" + System.currentTimeMillis() + ".bin").getAbsolutePath());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    dumping.set(false);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Writes the buffered observations to a sample file, oldest first, and returns the number of observations.
+     */
+    @Override
+    public long dump(String file) throws IOException {
+        byte[] snapshot;
+        long records;
+        synchronized (this) {
+            snapshot = new byte[used];
+            read(head, snapshot, used);
+            records = this.records;
+            dumps++;
+        }
+        writeManifest(new File(file), false);
+        byte[] length = new byte[4];
+        OutputStream out = new FileOutputStream(file);
+        try {
+            int position = 0;
+            while (position < snapshot.length) {
+                System.arraycopy(snapshot, position, length, 0, 4);
+                int size = toInt(length);
+                out.write(snapshot, position + 4, size);
+                position += 4 + size;
+            }
+        } finally {
+            out.close();
+        }
+        return records;
+    }
+
+    @Override
+    public long getCapacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    @Override
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    @Override
+    public synchronized long getOverwritten() {
+        return overwritten;
+    }
+
+    @Override
+    public synchronized long getDumps() {
+        return dumps;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.observation.Observation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Streams observations to any number of consumers that connect to a loopback port. Every observation is sent as a
+ * frame of its length followed by its Kryo serialization. Each connection buffers a bounded number of frames and
+ * drops the oldest frame if its consumer cannot keep up such that application threads are never blocked.
+ */
+public class DispatcherToSocket extends DispatcherBase {
+
+    private static final long MIN_ACCEPT_BACK_OFF = 10, MAX_ACCEPT_BACK_OFF = 5 * 1000; // milliseconds
+
+    private final int capacity;
+
+    private final ThreadLocal<Kryo> kryos = new ThreadLocal<Kryo>() {
+        @Override
+        protected Kryo initialValue() {
+            return newKryo();
+        }
+    };
+
+    private final CopyOnWriteArrayList<Connection> connections = new CopyOnWriteArrayList<Connection>();
+
+    public DispatcherToSocket(int port, int capacity) throws IOException {
+        this.capacity = capacity;
+        final ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread("jam-tap-acceptor") {
+            @Override
+            public void run() {
+                long backOff = 0;
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Connection connection = new Connection(serverSocket.accept());
+                        connections.add(connection);
+                        connection.start();
+                        backOff = 0;
+                    } catch (IOException e) {
+                        if (serverSocket.isClosed()) {
+                            return;
+                        }
+                        // Failures such as exhausted file descriptors persist for a while and are only reported once.
+                        if (backOff == 0) {
+                            System.err.println("Could not accept tap connection, backing off: " + e);
+                        }
+                        backOff = Math.min(Math.max(backOff * 2, MIN_ACCEPT_BACK_OFF), MAX_ACCEPT_BACK_OFF);
+                        try {
+                            Thread.sleep(backOff);
+                        } catch (InterruptedException ignored) {
+                            return;
+                        }
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        close(serverSocket);
+                        return;
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                close(serverSocket);
+            }
+        });
+    }
+
+    private static void close(ServerSocket serverSocket) {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    protected void doCommit(int id, Observation observation) {
+        if (connections.isEmpty()) {
+            return;
+        }
+        Output out = new Output(4096, -1);
+        kryos.get().writeObject(out, observation);
+        byte[] frame = out.toBytes();
+        for (Connection connection : connections) {
+            connection.offer(frame);
+        }
+    }
+
+    private class Connection extends Thread {
+
+        private final Socket socket;
+
+        private final Deque<byte[]> frames = new ArrayDeque<byte[]>();
+
+        private long dropped;
+
+        Connection(Socket socket) {
+            super("jam-tap-" + socket.getPort());
+            this.socket = socket;
+            setDaemon(true);
+        }
+
+        synchronized void offer(byte[] frame) {
+            if (frames.size() == capacity) {
+                frames.pollFirst();
+                dropped++;
+            }
+            frames.addLast(frame);
+            notify();
+        }
+
+        private synchronized byte[] take() throws InterruptedException {
+            while (frames.isEmpty()) {
+                wait();
+            }
+            return frames.pollFirst();
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                while (true) {
+                    byte[] frame = take();
+                    out.writeInt(frame.length);
+                    out.write(frame);
+                    synchronized (this) {
+                        if (!frames.isEmpty()) {
+                            continue;
+                        }
+                    }
+                    out.flush();
+                }
+            } catch (IOException ignored) {
+                // The consumer disconnected.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                connections.remove(this);
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                synchronized (this) {
+                    if (dropped > 0) {
+                        System.err.println("Dropped " + dropped + " observations for slow consumer " + socket.getRemoteSocketAddress());
+                    }
+                }
+            }
+        }
+    }
+}
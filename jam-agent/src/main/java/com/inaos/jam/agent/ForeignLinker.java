@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+/**
+ * Binds foreign dispatcher methods to native symbols. This baseline version is used on VMs without the
+ * {@code java.lang.foreign} API, a multi-release version replaces it on Java 22 and later.
+ */
+public class ForeignLinker {
+
+    private ForeignLinker() {
+    }
+
+    static boolean isSupported() {
+        return false;
+    }
+}
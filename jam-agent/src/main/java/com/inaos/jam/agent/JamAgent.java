@@ -8,21 +8,38 @@ import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.DynamicType;
 import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
 import net.bytebuddy.dynamic.scaffold.MethodGraph;
+import net.bytebuddy.implementation.bytecode.StackManipulation;
+import net.bytebuddy.implementation.bytecode.constant.IntegerConstant;
+import net.bytebuddy.implementation.bytecode.member.MethodInvocation;
 import net.bytebuddy.utility.JavaModule;
 
+import static net.bytebuddy.matcher.ElementMatchers.named;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.net.URL;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarFile;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.inaos.jam.api.BatchExecutor;
+import com.inaos.jam.api.Batched;
 import com.inaos.jam.api.DevMode;
+import com.inaos.jam.api.Fallback;
+import com.inaos.jam.api.ObservationId;
+import com.inaos.jam.observation.kryo.KryoManifest;
 
 public class JamAgent {
 
@@ -50,6 +67,22 @@ public class JamAgent {
 
     private static final long MAX_OBSERVATION_BYTES_FOR_FILES = 1024 * 1024; // 1 MB
 
+    private static final int DEFAULT_RING_SIZE = 64; // MB
+
+    private static final int DEFAULT_TAP_BUFFER = 1024; // observations per consumer
+
+    private static final long DEFAULT_WARM_UP_BUDGET = 60 * 1000; // 1 minute
+
+    private static final long DEFAULT_BREAKER_WINDOW = 1000; // 1 second
+
+    private static final long DEFAULT_BREAKER_COOL_DOWN = 30 * 1000; // 30 seconds
+
+    private static final long DEFAULT_CAPTURE_THRESHOLD = 64 * 1024 * 1024; // 64 MB
+
+    private static final int DEFAULT_HEAP_HIGH_WATER = 90, DEFAULT_HEAP_LOW_WATER = 75; // percent of heap
+
+    private static final int DEFAULT_DISK_HIGH_WATER = 95, DEFAULT_DISK_LOW_WATER = 90; // percent of volume
+
     static {
         if (IS_OS_LINUX) {
             NATIVE_SHARED_OBJ_EXT = "so";
@@ -98,8 +131,34 @@ public class JamAgent {
             Boolean expectedName = null;
 			Boolean debugMode = null;
             URL url = null;
+            String dispatcher = null;
             File sample = null;
-
+            Boolean shards = null;
+            String compression = null;
+            File manifest = null;
+            Boolean rawArrays = null;
+            Boolean deltas = null;
+            Long captureThreshold = null;
+            Integer stratify = null;
+            Double overhead = null;
+            Boolean pressureGuard = null;
+            Integer heapHighWater = null, heapLowWater = null, diskHighWater = null, diskLowWater = null;
+            String capture = null;
+            Integer ringSize = null;
+            File ringDump = null;
+            File dump = null;
+            Integer tap = null;
+            Integer tapBuffer = null;
+            File warmUp = null;
+            Long warmUpBudget = null;
+            Integer breakerThreshold = null;
+            Long breakerWindow = null, breakerCoolDown = null;
+            File report = null;
+            Boolean statistics = null;
+            Integer serializers = null;
+            String[] immutable = new String[0];
+
+            long bootJarExtractionStart = System.nanoTime();
             InputStream bootJar = JamAgent.class.getResourceAsStream("/jam-boot.jar");
             if (bootJar == null) {
                 throw new IllegalStateException("Boot jar not found");
@@ -122,6 +181,8 @@ public class JamAgent {
             }
 
             instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(materializedBootJar));
+            StartupListener startup = new StartupListener();
+            startup.bootJarExtraction(System.nanoTime() - bootJarExtractionStart);
 
             for (String config : argument.split(",")) {
                 String[] pair = config.split("=");
@@ -133,34 +194,112 @@ public class JamAgent {
                     expectedName = Boolean.parseBoolean(pair[1]);
                 } else if (pair[0].equals("library")) {
                     url = new URL(pair[1]);
+                } else if (pair[0].equals("dispatcher")) {
+                    dispatcher = pair[1];
+                } else if (pair[0].equals("ringSize")) {
+                    ringSize = Integer.parseInt(pair[1]);
+                } else if (pair[0].equals("ringDump")) {
+                    ringDump = new File(pair[1]);
+                } else if (pair[0].equals("dump")) {
+                    dump = new File(pair[1]);
                 } else if (pair[0].equals("sample")) {
                     sample = new File(pair[1]);
+                } else if (pair[0].equals("tap")) {
+                    tap = Integer.parseInt(pair[1]);
+                } else if (pair[0].equals("tapBuffer")) {
+                    tapBuffer = Integer.parseInt(pair[1]);
+                } else if (pair[0].equals("shards")) {
+                    shards = Boolean.parseBoolean(pair[1]);
+                } else if (pair[0].equals("compression")) {
+                    compression = pair[1];
+                } else if (pair[0].equals("manifest")) {
+                    manifest = new File(pair[1]);
+                } else if (pair[0].equals("rawArrays")) {
+                    rawArrays = Boolean.parseBoolean(pair[1]);
+                } else if (pair[0].equals("deltas")) {
+                    deltas = Boolean.parseBoolean(pair[1]);
+                } else if (pair[0].equals("pressureGuard")) {
+                    pressureGuard = Boolean.parseBoolean(pair[1]);
+                } else if (pair[0].equals("heapHighWater")) {
+                    heapHighWater = Integer.parseInt(pair[1]);
+                } else if (pair[0].equals("heapLowWater")) {
+                    heapLowWater = Integer.parseInt(pair[1]);
+                } else if (pair[0].equals("diskHighWater")) {
+                    diskHighWater = Integer.parseInt(pair[1]);
+                } else if (pair[0].equals("diskLowWater")) {
+                    diskLowWater = Integer.parseInt(pair[1]);
+                } else if (pair[0].equals("overhead")) {
+                    overhead = Double.parseDouble(pair[1]);
+                } else if (pair[0].equals("stratify")) {
+                    stratify = Integer.parseInt(pair[1]);
+                } else if (pair[0].equals("captureThreshold")) {
+                    captureThreshold = Long.parseLong(pair[1]);
+                } else if (pair[0].equals("capture")) {
+                    capture = pair[1];
+                } else if (pair[0].equals("warmUp")) {
+                    warmUp = new File(pair[1]);
+                } else if (pair[0].equals("warmUpBudget")) {
+                    warmUpBudget = Long.parseLong(pair[1]);
+                } else if (pair[0].equals("breakerThreshold")) {
+                    breakerThreshold = Integer.parseInt(pair[1]);
+                } else if (pair[0].equals("breakerWindow")) {
+                    breakerWindow = Long.parseLong(pair[1]);
+                } else if (pair[0].equals("breakerCoolDown")) {
+                    breakerCoolDown = Long.parseLong(pair[1]);
 				} else if (pair[0].equals("debugMode")) {
 					debugMode = Boolean.parseBoolean(pair[1]);
+                } else if (pair[0].equals("report")) {
+                    report = new File(pair[1]);
+                } else if (pair[0].equals("statistics")) {
+                    statistics = Boolean.parseBoolean(pair[1]);
+                } else if (pair[0].equals("serializers")) {
+                    serializers = Integer.parseInt(pair[1]);
+                } else if (pair[0].equals("immutable")) {
+                    immutable = pair[1].split(";");
   			    } else {
                     throw new IllegalArgumentException("Unknown configuration: " + pair[0]);
                 }
             }
 
+            if (dump != null) {
+                dumpDispatcher(dump);
+                return null;
+            }
+
             if (url == null) {
                 throw new IllegalArgumentException("Agent library is not set");
             }
 
             final boolean isDevMode = devMode == null ? false : devMode;
-            if (isDevMode) {
-                registerDispatcher(sample);
+            // An explicitly chosen dispatcher also records observations in production.
+            final boolean isObserved = isDevMode || dispatcher != null;
+            if (isObserved) {
+                if (dispatcher == null) {
+                    dispatcher = tap != null ? "socket" : sample != null ? "file" : "console";
+                }
             }
             final boolean isExpectedName = expectedName == null ? true : expectedName;
 			final boolean isDebugMode = debugMode == null ? false : debugMode;
+            final int circuitBreakerThreshold = breakerThreshold == null ? 0 : breakerThreshold;
 
 			final ByteBuddy byteBuddy = new ByteBuddy().with(MethodGraph.Compiler.ForDeclaredMethods.INSTANCE);
 
 			AgentBuilder agentBuilder = new AgentBuilder.Default(byteBuddy)
                     .with(redefinitionStrategy)
-                    .disableClassFormatChanges();
+                    .disableClassFormatChanges()
+                    .with(startup);
 			if (isDebugMode) {
 			    agentBuilder = agentBuilder.with(AgentBuilder.Listener.StreamWriting.toSystemError().withTransformationsOnly());
 			}
+            TransformationReport transformationReport = null;
+            if (report != null) {
+                if (isDebugMode) {
+                    transformationReport = new TransformationReport(report);
+                    agentBuilder = agentBuilder.with(transformationReport);
+                } else {
+                    System.err.println("Transformation report is only written in debug mode: " + report);
+                }
+            }
 
             final Collection<Runnable> destructions = Collections.newSetFromMap(new ConcurrentHashMap<Runnable, Boolean>());
             if (!isDevMode) {
@@ -175,16 +314,102 @@ public class JamAgent {
             }
 
             final ClassLoadingStrategy<ClassLoader> classLoadingStrategy = ClassLoadingStrategy.Default.INJECTION.allowExistingTypes();
-            for (final MethodAccelleration accelleration : MethodAccelleration.findAll(url)) {
-                AgentBuilder.Transformer.ForAdvice adviceTransformer = new AgentBuilder.Transformer.ForAdvice(Advice.withCustomMapping()
-                        .bind(DevMode.class, isDevMode))
-                        .include(accelleration.classFileLocator());
+            long discoveryStart = System.nanoTime();
+            List<MethodAccelleration> accellerations = MethodAccelleration.findAll(url);
+            startup.discovery(System.nanoTime() - discoveryStart);
+            if (isObserved) {
+                KryoManifest registrations = manifest == null ? new KryoManifest() : KryoManifest.read(manifest);
+                for (MethodAccelleration accelleration : accellerations) {
+                    accelleration.register(registrations);
+                }
+                registerCapture(-1,
+                        captureThreshold == null ? DEFAULT_CAPTURE_THRESHOLD : captureThreshold,
+                        isStreamingCapture(capture));
+                registerDispatcher(dispatcher,
+                        sample,
+                        shards == null ? false : shards,
+                        compression,
+                        tap,
+                        tapBuffer == null ? DEFAULT_TAP_BUFFER : tapBuffer,
+                        (ringSize == null ? DEFAULT_RING_SIZE : ringSize) * 1024 * 1024,
+                        ringDump == null ? new File(System.getProperty("java.io.tmpdir")) : ringDump,
+                        serializers == null ? 0 : serializers,
+                        immutable,
+                        manifest == null && registrations.isEmpty() ? null : registrations,
+                        rawArrays == null ? false : rawArrays,
+                        deltas == null ? false : deltas,
+                        stratify == null ? 0 : stratify,
+                        overhead,
+                        pressureGuard == null ? false : pressureGuard,
+                        heapHighWater == null ? DEFAULT_HEAP_HIGH_WATER : heapHighWater,
+                        heapLowWater == null ? DEFAULT_HEAP_LOW_WATER : heapLowWater,
+                        diskHighWater == null ? DEFAULT_DISK_HIGH_WATER : diskHighWater,
+                        diskLowWater == null ? DEFAULT_DISK_LOW_WATER : diskLowWater);
+            }
+            final WarmUp warmUpReplay;
+            if (warmUp == null) {
+                warmUpReplay = null;
+            } else if (isDevMode) {
+                System.err.println("Warm-up is not applied in dev mode: " + warmUp);
+                warmUpReplay = null;
+            } else {
+                warmUpReplay = new WarmUp(warmUp,
+                        warmUpBudget == null ? DEFAULT_WARM_UP_BUDGET : warmUpBudget,
+                        accellerations,
+                        isDebugMode);
+            }
+            for (final MethodAccelleration accelleration : accellerations) {
+                // Constant observation names get an id each, such that observations of one acceleration keep their own budgets.
+                int observationId = accelleration.isObservationIdBound() ? registerObservation() : -1;
+                final Map<String, Integer> observationIds = new HashMap<String, Integer>();
+                for (String name : accelleration.observationNames()) {
+                    observationIds.put(name, registerObservation(name));
+                }
+                if (isObserved && accelleration.captureThreshold() != null) {
+                    if (observationId != -1) {
+                        registerCapture(observationId, accelleration.captureThreshold(), accelleration.isStreamingCapture());
+                    }
+                    for (int id : observationIds.values()) {
+                        registerCapture(id, accelleration.captureThreshold(), accelleration.isStreamingCapture());
+                    }
+                }
+                Advice.WithCustomMapping mapping = Advice.withCustomMapping()
+                        .bind(DevMode.class, isDevMode)
+                        .bind(ObservationId.class, observationId);
+                StackManipulation batchExecutor = accelleration.batchExecutor(byteBuddy);
+                if (batchExecutor != null) {
+                    mapping = mapping.bind(Batched.class, batchExecutor, new TypeDescription.Generic.OfNonGenericType.ForLoadedType(BatchExecutor.class));
+                }
+                int circuitBreaker = -1;
+                if (!isDevMode && circuitBreakerThreshold > 0) {
+                    circuitBreaker = registerCircuitBreaker(accelleration.target(),
+                            circuitBreakerThreshold,
+                            breakerWindow == null ? DEFAULT_BREAKER_WINDOW : breakerWindow,
+                            breakerCoolDown == null ? DEFAULT_BREAKER_COOL_DOWN : breakerCoolDown);
+                    mapping = mapping.bind(Fallback.class, new StackManipulation.Compound(IntegerConstant.forValue(circuitBreaker),
+                            MethodInvocation.invoke(new TypeDescription.ForLoadedType(Class.forName("com.inaos.jam.boot.CircuitBreaker"))
+                                    .getDeclaredMethods()
+                                    .filter(named("isOpen"))
+                                    .getOnly())), new TypeDescription.Generic.OfNonGenericType.ForLoadedType(boolean.class))
+                            .bind(CircuitBreakerAdvice.Index.class, circuitBreaker);
+                } else {
+                    mapping = mapping.bind(Fallback.class, false);
+                }
+                AgentBuilder.Transformer.ForAdvice adviceTransformer = new AgentBuilder.Transformer.ForAdvice(mapping)
+                        .include(accelleration.classFileLocator(isDevMode, isObserved, observationIds));
+                if (circuitBreaker != -1) {
+                    // Registered first to become the outermost advice that also observes exceptions of the acceleration's advice.
+                    adviceTransformer = adviceTransformer.advice(accelleration.method(), CircuitBreakerAdvice.class.getName());
+                }
                 if (accelleration.isTrivialEnter()) {
                     adviceTransformer = adviceTransformer.advice(accelleration.method(), TrivialEnterAdvice.class.getName(), accelleration.target());
                 } else {
                     adviceTransformer = adviceTransformer.advice(accelleration.method(), accelleration.target());
                 }
-                agentBuilder = agentBuilder.type(accelleration.type(!isExpectedName)).transform(new AgentBuilder.Transformer() {
+                if (transformationReport != null) {
+                    transformationReport.register(accelleration, 1 + (circuitBreaker == -1 ? 0 : 1) + (accelleration.isTrivialEnter() ? 1 : 0));
+                }
+                agentBuilder = agentBuilder.type(startup.matcher(accelleration.type(!isExpectedName))).transform(new AgentBuilder.Transformer() {
                     @Override
                     public DynamicType.Builder<?> transform(DynamicType.Builder<?> builder,
                                                             TypeDescription typeDescription,
@@ -201,10 +426,15 @@ public class JamAgent {
                         for (DynamicType.Unloaded<?> type : binaries.types) {
                             type.load(classLoader, classLoadingStrategy);
                         }
+                        classLoadingStrategy.load(classLoader, accelleration.batchKernels());
+                        classLoadingStrategy.load(classLoader, accelleration.delegated(isDevMode, isObserved, observationIds));
                         if (!isDevMode) {
                             classLoadingStrategy.load(classLoader, accelleration.inlined());
                             destructions.addAll(binaries.destructions);
                         }
+                        if (warmUpReplay != null) {
+                            warmUpReplay.applied(accelleration, classLoader);
+                        }
                         return builder;
                     }
                 }).transform(adviceTransformer).asDecorator();
@@ -212,7 +442,20 @@ public class JamAgent {
                  System.out.println("Registered accelleration: " + accelleration);
              }
             }
-            return agentBuilder.installOn(instrumentation);
+            long installationStart = System.nanoTime();
+            ResettableClassFileTransformer transformer = agentBuilder.installOn(instrumentation);
+            startup.installation(System.nanoTime() - installationStart);
+            if (warmUpReplay != null) {
+                warmUpReplay.start();
+            }
+            // The platform MBean server is only started on request as containers may install their own builder later.
+            if (statistics == null ? isDebugMode : statistics) {
+                startup.register();
+            }
+            if (isDebugMode) {
+                System.out.println("Agent startup: " + startup.summary());
+            }
+            return transformer;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -220,20 +463,150 @@ public class JamAgent {
     }
 
     // Use reflection for delayed class resolution after appending to boot loader.
-    private static void registerDispatcher(File sample) throws Exception {
+    private static void registerDispatcher(String type,
+                                           File sample,
+                                           boolean shards,
+                                           String compression,
+                                           Integer tap,
+                                           int tapBuffer,
+                                           int ringSize,
+                                           File ringDump,
+                                           int serializers,
+                                           String[] immutable,
+                                           KryoManifest manifest,
+                                           boolean rawArrays,
+                                           boolean deltas,
+                                           int stratify,
+                                           Double overhead,
+                                           boolean pressureGuard,
+                                           int heapHighWater,
+                                           int heapLowWater,
+                                           int diskHighWater,
+                                           int diskLowWater) throws Exception {
+        Class.forName("com.inaos.jam.agent.DispatcherBase")
+                .getDeclaredMethod("register", KryoManifest.class)
+                .invoke(null, manifest);
         Object which;
-        if (sample == null) {
+        if (type.equals("socket")) {
+            if (tap == null) {
+                throw new IllegalArgumentException("Socket dispatcher requires a tap port");
+            }
+            which = Class.forName("com.inaos.jam.agent.DispatcherToSocket")
+                    .getConstructor(int.class, int.class)
+                    .newInstance(tap, tapBuffer);
+        } else if (type.equals("ring")) {
+            which = Class.forName("com.inaos.jam.agent.DispatcherToRing")
+                    .getConstructor(int.class, File.class)
+                    .newInstance(ringSize, ringDump);
+            registerBean(which, "com.inaos.jam:type=Dispatcher,name=Ring");
+        } else if (type.equals("console")) {
             which = Class.forName("com.inaos.jam.agent.DispatcherToConsole")
                     .getConstructor()
                     .newInstance();
-        } else {
+        } else if (type.equals("file")) {
+            if (sample == null) {
+                throw new IllegalArgumentException("File dispatcher requires a sample file");
+            }
             which = Class.forName("com.inaos.jam.agent.DispatcherToFile")
-                    .getConstructor(File.class, long.class, long.class)
-                    .newInstance(sample, MAX_OBSERVATION_COUNT_FOR_FILES, MAX_OBSERVATION_BYTES_FOR_FILES);
+                    .getConstructor(File.class, long.class, long.class, boolean.class, String.class)
+                    .newInstance(sample, MAX_OBSERVATION_COUNT_FOR_FILES, MAX_OBSERVATION_BYTES_FOR_FILES, shards, compression);
+        } else {
+            throw new IllegalArgumentException("Unknown dispatcher: " + type);
+        }
+        if (rawArrays) {
+            Class.forName("com.inaos.jam.agent.DispatcherBase")
+                    .getDeclaredMethod("rawArrays", boolean.class)
+                    .invoke(which, true);
+        }
+        if (deltas) {
+            Class.forName("com.inaos.jam.agent.DispatcherBase")
+                    .getDeclaredMethod("deltas", boolean.class)
+                    .invoke(which, true);
+        }
+        if (stratify > 0) {
+            Class.forName("com.inaos.jam.agent.DispatcherBase")
+                    .getDeclaredMethod("stratify", int.class)
+                    .invoke(which, stratify);
+        }
+        if (overhead != null) {
+            Object governor = Class.forName("com.inaos.jam.agent.DispatcherBase")
+                    .getDeclaredMethod("govern", double.class)
+                    .invoke(which, overhead / 100);
+            registerBean(governor, "com.inaos.jam:type=Governor");
+        }
+        if (pressureGuard) {
+            Object guard = Class.forName("com.inaos.jam.agent.DispatcherBase")
+                    .getDeclaredMethod("guard", int.class, int.class, int.class, int.class)
+                    .invoke(which, heapHighWater, heapLowWater, diskHighWater, diskLowWater);
+            registerBean(guard, "com.inaos.jam:type=PressureGuard");
+        }
+        if (serializers > 0) {
+            Class.forName("com.inaos.jam.agent.DispatcherBase")
+                    .getDeclaredMethod("defer", int.class, String[].class)
+                    .invoke(which, serializers, immutable);
         }
         Class<?> dispatcher = Class.forName("com.inaos.jam.boot.JamAgentDispatcher");
         Field instance = dispatcher.getField("dispatcher");
         instance.set(null, which);
+        dispatcher.getField("nativeErrors").set(null, type.equals("ring") ? which : null);
+    }
+
+    // A bean of a previous attachment refers to the replaced dispatcher or breaker and is therefore replaced, too.
+    private static void registerBean(Object bean, String name) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(name);
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(bean, objectName);
+    }
+
+    // Use reflection for delayed class resolution after appending to boot loader.
+    private static void dumpDispatcher(File dump) throws Exception {
+        Object which = Class.forName("com.inaos.jam.boot.JamAgentDispatcher").getField("dispatcher").get(null);
+        if (which == null || !which.getClass().getName().equals("com.inaos.jam.agent.DispatcherToRing")) {
+            throw new IllegalStateException("No ring dispatcher is registered: " + which);
+        }
+        Object records = which.getClass().getMethod("dump", String.class).invoke(which, dump.getAbsolutePath());
+        System.out.println("Dumped " + records + " observations to " + dump);
+    }
+
+    private static boolean isStreamingCapture(String capture) {
+        if (capture == null || capture.equals("summary")) {
+            return false;
+        } else if (capture.equals("stream")) {
+            return true;
+        } else {
+            throw new IllegalArgumentException("Unknown capture policy: " + capture);
+        }
+    }
+
+    // Use reflection for delayed class resolution after appending to boot loader.
+    private static void registerCapture(int id, long threshold, boolean stream) throws Exception {
+        Class.forName("com.inaos.jam.agent.DispatcherBase")
+                .getDeclaredMethod("capture", int.class, long.class, boolean.class)
+                .invoke(null, id, threshold, stream);
+    }
+
+    // Use reflection for delayed class resolution after appending to boot loader.
+    private static int registerObservation() throws Exception {
+        return (Integer) Class.forName("com.inaos.jam.boot.JamAgentDispatcher").getMethod("register").invoke(null);
+    }
+
+    // Use reflection for delayed class resolution after appending to boot loader.
+    private static int registerObservation(String name) throws Exception {
+        return (Integer) Class.forName("com.inaos.jam.boot.JamAgentDispatcher").getMethod("register", String.class).invoke(null, name);
+    }
+
+    // Use reflection for delayed class resolution after appending to boot loader.
+    private static int registerCircuitBreaker(String name, int threshold, long window, long coolDown) throws Exception {
+        Class<?> circuitBreaker = Class.forName("com.inaos.jam.boot.CircuitBreaker");
+        int index = (Integer) circuitBreaker.getMethod("register", String.class, int.class, long.class, long.class)
+                .invoke(null, name, threshold, window, coolDown);
+        // Classes that are woven by this attachment use the new breaker, the bean of a previous attachment is replaced.
+        registerBean(circuitBreaker.getMethod("of", int.class).invoke(null, index),
+                "com.inaos.jam:type=CircuitBreaker,name=" + ObjectName.quote(name));
+        return index;
     }
 
     private static boolean isOsMatchesName(String osNamePrefix) {
@@ -21,13 +21,28 @@ import net.bytebuddy.ByteBuddy;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.asm.Advice;
 import net.bytebuddy.description.annotation.AnnotationDescription;
+import net.bytebuddy.description.field.FieldDescription;
 import net.bytebuddy.description.method.MethodDescription;
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.ClassFileLocator;
 import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.dynamic.scaffold.subclass.ConstructorStrategy;
 import net.bytebuddy.implementation.Implementation;
+import net.bytebuddy.implementation.InvokeDynamic;
 import net.bytebuddy.implementation.MethodCall;
 import net.bytebuddy.implementation.StubMethod;
+import net.bytebuddy.implementation.bytecode.ByteCodeAppender;
+import net.bytebuddy.implementation.bytecode.StackManipulation;
+import net.bytebuddy.implementation.bytecode.constant.ClassConstant;
+import net.bytebuddy.implementation.bytecode.constant.IntegerConstant;
+import net.bytebuddy.implementation.bytecode.constant.LongConstant;
+import net.bytebuddy.implementation.bytecode.member.FieldAccess;
+import net.bytebuddy.implementation.bytecode.member.MethodInvocation;
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassVisitor;
+import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
 import net.bytebuddy.matcher.ElementMatcher;
 import net.bytebuddy.matcher.ElementMatchers;
 import net.bytebuddy.pool.TypePool;
@@ -41,6 +56,10 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import com.inaos.jam.api.Acceleration;
+import com.inaos.jam.api.BatchExecutor;
+import com.inaos.jam.api.ObservationId;
+import com.inaos.jam.boot.StartupStatistics;
+import com.inaos.jam.observation.kryo.KryoManifest;
 
 import static net.bytebuddy.matcher.ElementMatchers.*;
 
@@ -53,9 +72,25 @@ class MethodAccelleration {
             SIMPLE_ENTRY,
             DISPATCHER,
             BINARY,
+            FOREIGN,
+            SYMBOL,
             SYSTEM_LOAD,
+            NATIVE_LOAD_STARTED,
+            NATIVE_LOAD_COMPLETED,
             INLINE,
-            EXPECTED_NAMES;
+            EXPECTED_NAMES,
+            DELEGATE,
+            BATCH,
+            KERNEL,
+            SIZE,
+            LINGER,
+            BATCH_EXECUTOR,
+            REGISTRATIONS,
+            REGISTRATION_TYPE,
+            REFERENCES,
+            CAPTURE,
+            THRESHOLD,
+            STREAM;
 
     static {
         TypeDescription accelleration = new TypeDescription.ForLoadedType(Acceleration.class);
@@ -66,11 +101,32 @@ class MethodAccelleration {
         SIMPLE_ENTRY = accelleration.getDeclaredMethods().filter(named("simpleEntry")).getOnly();
         INLINE = accelleration.getDeclaredMethods().filter(named("inline")).getOnly();
         EXPECTED_NAMES = accelleration.getDeclaredMethods().filter(named("expectedNames")).getOnly();
+        DELEGATE = accelleration.getDeclaredMethods().filter(named("delegate")).getOnly();
+        BATCH = accelleration.getDeclaredMethods().filter(named("batch")).getOnly();
+        TypeDescription batch = new TypeDescription.ForLoadedType(Acceleration.Batch.class);
+        KERNEL = batch.getDeclaredMethods().filter(named("kernel")).getOnly();
+        SIZE = batch.getDeclaredMethods().filter(named("size")).getOnly();
+        LINGER = batch.getDeclaredMethods().filter(named("linger")).getOnly();
+        BATCH_EXECUTOR = new TypeDescription.ForLoadedType(BatchExecutor.class).getDeclaredMethods().filter(named("of")).getOnly();
+        REGISTRATIONS = accelleration.getDeclaredMethods().filter(named("registrations")).getOnly();
+        CAPTURE = accelleration.getDeclaredMethods().filter(named("capture")).getOnly();
+        TypeDescription capture = new TypeDescription.ForLoadedType(Acceleration.Capture.class);
+        THRESHOLD = capture.getDeclaredMethods().filter(named("threshold")).getOnly();
+        STREAM = capture.getDeclaredMethods().filter(named("stream")).getOnly();
+        TypeDescription registration = new TypeDescription.ForLoadedType(Acceleration.Registration.class);
+        REGISTRATION_TYPE = registration.getDeclaredMethods().filter(named("type")).getOnly();
+        REFERENCES = registration.getDeclaredMethods().filter(named("references")).getOnly();
         TypeDescription library = new TypeDescription.ForLoadedType(Acceleration.Library.class);
         DISPATCHER = library.getDeclaredMethods().filter(named("dispatcher")).getOnly();
         BINARY = library.getDeclaredMethods().filter(named("binary")).getOnly();
+        FOREIGN = library.getDeclaredMethods().filter(named("foreign")).getOnly();
+        TypeDescription symbol = new TypeDescription.ForLoadedType(Acceleration.Library.Symbol.class);
+        SYMBOL = symbol.getDeclaredMethods().filter(named("value")).getOnly();
         TypeDescription system = new TypeDescription.ForLoadedType(System.class);
         SYSTEM_LOAD = system.getDeclaredMethods().filter(named("load")).getOnly();
+        TypeDescription startupStatistics = new TypeDescription.ForLoadedType(StartupStatistics.class);
+        NATIVE_LOAD_STARTED = startupStatistics.getDeclaredMethods().filter(named("nativeLoadStarted")).getOnly();
+        NATIVE_LOAD_COMPLETED = startupStatistics.getDeclaredMethods().filter(named("nativeLoadCompleted")).getOnly();
     }
 
     static List<MethodAccelleration> findAll(URL url) {
@@ -132,6 +188,10 @@ class MethodAccelleration {
 
     private final ClassLoader classLoader;
 
+    private byte[] devModeAdvice, productionAdvice;
+
+    private DynamicType.Unloaded<?> batchHolder;
+
     private MethodAccelleration(String target,
                                 AnnotationDescription.Loadable<Acceleration> annotation,
                                 ClassFileLocator classFileLocator,
@@ -175,8 +235,90 @@ class MethodAccelleration {
         return target;
     }
 
-    ClassFileLocator classFileLocator() {
-        return classFileLocator;
+    String typeName() {
+        return annotation.getValue(TYPE).resolve(TypeDescription.class).getName();
+    }
+
+    String methodName() {
+        return annotation.getValue(METHOD).resolve(String.class);
+    }
+
+    List<String> parameterNames() {
+        List<String> parameterNames = new ArrayList<String>();
+        for (TypeDescription parameter : annotation.getValue(PARAMETERS).resolve(TypeDescription[].class)) {
+            parameterNames.add(parameter.getName());
+        }
+        return parameterNames;
+    }
+
+    /**
+     * Returns the constant observation names that the advice passes to {@code JamAgentDispatcher.observe}. The set is
+     * empty if the advice computes its observation names.
+     */
+    Set<String> observationNames() {
+        Set<String> observationNames = new HashSet<String>();
+        try {
+            new ClassReader(classFileLocator.locate(target).resolve()).accept(new ObservationNames(observationNames), ClassReader.SKIP_FRAMES);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return observationNames;
+    }
+
+    /**
+     * Returns {@code true} if an advice method binds the observation id of the acceleration.
+     */
+    boolean isObservationIdBound() {
+        return !TypePool.Default.WithLazyResolution.of(classFileLocator).describe(target).resolve()
+                .getDeclaredMethods()
+                .filter(hasParameters(whereAny(isAnnotatedWith(ObservationId.class))))
+                .isEmpty();
+    }
+
+    ClassFileLocator classFileLocator(boolean devMode, boolean observed, Map<String, Integer> observationIds) {
+        byte[] advice = advice(devMode, observed, observationIds);
+        if (advice == null) {
+            return classFileLocator;
+        }
+        return new ClassFileLocator.Compound(ClassFileLocator.Simple.of(target, advice), classFileLocator);
+    }
+
+    Map<TypeDescription, byte[]> delegated(boolean devMode, boolean observed, Map<String, Integer> observationIds) {
+        if (!annotation.getValue(DELEGATE).resolve(Boolean.class)) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(TypePool.Default.WithLazyResolution.of(classFileLocator).describe(target).resolve(), advice(devMode, observed, observationIds));
+    }
+
+    // Returns null if the advice class is applied as it is.
+    private synchronized byte[] advice(boolean devMode, boolean observed, Map<String, Integer> observationIds) {
+        byte[] advice = devMode ? devModeAdvice : productionAdvice;
+        if (advice == null) {
+            boolean delegate = annotation.getValue(DELEGATE).resolve(Boolean.class);
+            if (devMode && !delegate && observationIds.isEmpty()) {
+                return null;
+            }
+            try {
+                advice = classFileLocator.locate(target).resolve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (!observationIds.isEmpty()) {
+                advice = ObservationIdAdvice.make(advice, observationIds);
+            }
+            if (!devMode) {
+                advice = ProductionAdvice.make(advice, observed);
+            }
+            if (delegate) {
+                advice = DelegatingAdvice.make(advice);
+            }
+            if (devMode) {
+                devModeAdvice = advice;
+            } else {
+                productionAdvice = advice;
+            }
+        }
+        return advice;
     }
 
     Binaries binaries(ByteBuddy byteBuddy, String folder, String prefix, String extension, ClassLoader userLoader) {
@@ -184,6 +326,7 @@ class MethodAccelleration {
         List<Runnable> destructions = new ArrayList<Runnable>();
         for (AnnotationDescription library : annotation.getValue(LIBRARIES).resolve(AnnotationDescription[].class)) {
             String resource = folder + "/" + prefix + library.getValue(BINARY).resolve(String.class);
+            long extractionStart = System.nanoTime();
             InputStream in = classLoader.getResourceAsStream(resource + "." + extension);
             File file;
             try {
@@ -202,6 +345,7 @@ class MethodAccelleration {
             } catch (IOException e) {
                 throw new IllegalStateException(e);
             }
+            StartupStatistics.INSTANCE.nativeExtraction(System.nanoTime() - extractionStart);
             TypeDescription dispatcher = library.getValue(DISPATCHER).resolve(TypeDescription.class);
             ClassFileLocator compoundLocator = new ClassFileLocator.Compound(classFileLocator, ClassFileLocator.ForClassLoader.of(userLoader));
             dispatcher = TypePool.Default.WithLazyResolution.of(compoundLocator).describe(dispatcher.getName()).resolve();
@@ -223,10 +367,32 @@ class MethodAccelleration {
             if (!destructionMethods.isEmpty()) {
                 destructions.add(new Destruction(userLoader, dispatcher.getName(), destructionMethods));
             }
-            types.add(byteBuddy.redefine(dispatcher, compoundLocator)
-                    .invokable(isTypeInitializer())
-                    .intercept(MethodCall.invoke(SYSTEM_LOAD).with(file.getAbsolutePath()).andThen(initialization))
-                    .make());
+            DynamicType.Builder<?> builder = byteBuddy.redefine(dispatcher, compoundLocator);
+            if (library.getValue(FOREIGN).resolve(Boolean.class)) {
+                if (!ForeignLinker.isSupported()) {
+                    throw new IllegalStateException("Foreign library requires Java 22 or later: " + dispatcher);
+                }
+                MethodDescription.InDefinedShape bootstrap = new TypeDescription.ForLoadedType(ForeignLinker.class)
+                        .getDeclaredMethods()
+                        .filter(named("bootstrap"))
+                        .getOnly();
+                for (MethodDescription nativeMethod : dispatcher.getDeclaredMethods().filter(isNative())) {
+                    if (!nativeMethod.isStatic()) {
+                        throw new IllegalStateException("Non-static foreign method: " + nativeMethod);
+                    }
+                    AnnotationDescription symbol = nativeMethod.getDeclaredAnnotations().ofType(Acceleration.Library.Symbol.class);
+                    builder = builder.method(is(nativeMethod)).intercept(InvokeDynamic.bootstrap(bootstrap,
+                            file.getAbsolutePath(),
+                            symbol == null ? nativeMethod.getName() : symbol.getValue(SYMBOL).resolve(String.class)));
+                }
+                builder = builder.invokable(isTypeInitializer()).intercept(initialization);
+            } else {
+                builder = builder.invokable(isTypeInitializer())
+                        .intercept(MethodCall.invoke(NATIVE_LOAD_STARTED)
+                                .andThen(MethodCall.invoke(SYSTEM_LOAD).with(file.getAbsolutePath())
+                                        .andThen(MethodCall.invoke(NATIVE_LOAD_COMPLETED).andThen(initialization))));
+            }
+            types.add(builder.make());
         }
         return new Binaries(types, destructions);
     }
@@ -243,26 +409,179 @@ class MethodAccelleration {
         return inlined;
     }
 
+    void register(KryoManifest manifest) {
+        for (AnnotationDescription registration : annotation.getValue(REGISTRATIONS).resolve(AnnotationDescription[].class)) {
+            manifest.add(registration.getValue(REGISTRATION_TYPE).resolve(TypeDescription.class).getName(),
+                    registration.getValue(REFERENCES).resolve(Boolean.class));
+        }
+    }
+
+    /**
+     * Returns the threshold of the declared capture policy or {@code null} if no policy is declared.
+     */
+    Long captureThreshold() {
+        AnnotationDescription capture = capture();
+        return capture == null ? null : capture.getValue(THRESHOLD).resolve(Long.class);
+    }
+
+    boolean isStreamingCapture() {
+        AnnotationDescription capture = capture();
+        return capture != null && capture.getValue(STREAM).resolve(Boolean.class);
+    }
+
+    private AnnotationDescription capture() {
+        AnnotationDescription[] captures = annotation.getValue(CAPTURE).resolve(AnnotationDescription[].class);
+        if (captures.length == 0) {
+            return null;
+        } else if (captures.length > 1) {
+            throw new IllegalStateException("Acceleration declares more than one capture policy: " + target);
+        }
+        return captures[0];
+    }
+
+    /**
+     * Returns the stack manipulation that loads the batch executor of this acceleration, if it is batched. The executor is
+     * resolved once by the type initializer of a holder class that is injected next to the batch kernel, such that the
+     * advice only reads a static field per call.
+     */
+    StackManipulation batchExecutor(ByteBuddy byteBuddy) {
+        AnnotationDescription[] batches = annotation.getValue(BATCH).resolve(AnnotationDescription[].class);
+        if (batches.length == 0) {
+            return null;
+        } else if (batches.length > 1) {
+            throw new IllegalStateException("Acceleration declares more than one batch: " + target);
+        }
+        int size = batches[0].getValue(SIZE).resolve(Integer.class);
+        if (size < 1) {
+            throw new IllegalStateException("Batch size must be positive for " + target + ": " + size);
+        }
+        TypeDescription kernel = batches[0].getValue(KERNEL).resolve(TypeDescription.class);
+        long linger = batches[0].getValue(LINGER).resolve(Long.class);
+        // Accelerations with the same batch configuration resolve the same holder and therefore share their executor.
+        TypeDescription holder = new TypeDescription.Latent(kernel.getName() + "$Executor$" + size + "$" + linger,
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL,
+                TypeDescription.Generic.OBJECT);
+        FieldDescription.InDefinedShape executor = new FieldDescription.Latent(holder,
+                "EXECUTOR",
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+                new TypeDescription.Generic.OfNonGenericType.ForLoadedType(BatchExecutor.class),
+                Collections.<AnnotationDescription>emptyList());
+        batchHolder = byteBuddy.subclass(Object.class, ConstructorStrategy.Default.NO_CONSTRUCTORS)
+                .name(holder.getName())
+                .modifiers(holder.getModifiers())
+                .defineField(executor.getName(), executor.getType(), executor.getModifiers())
+                .initializer(new ByteCodeAppender.Simple(ClassConstant.of(kernel),
+                        IntegerConstant.forValue(size),
+                        LongConstant.forValue(linger),
+                        MethodInvocation.invoke(BATCH_EXECUTOR),
+                        FieldAccess.forField(executor).write()))
+                .make();
+        return FieldAccess.forField(executor).read();
+    }
+
+    Map<TypeDescription, byte[]> batchKernels() {
+        Map<TypeDescription, byte[]> kernels = new HashMap<TypeDescription, byte[]>();
+        try {
+            for (AnnotationDescription batch : annotation.getValue(BATCH).resolve(AnnotationDescription[].class)) {
+                TypeDescription kernel = batch.getValue(KERNEL).resolve(TypeDescription.class);
+                kernels.put(kernel, classFileLocator.locate(kernel.getName()).resolve());
+            }
+            if (batchHolder != null) {
+                kernels.put(batchHolder.getTypeDescription(), batchHolder.getBytes());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return kernels;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append(target).append(" @ (");
-        sb.append("type=").append(annotation.getValue(TYPE).resolve(TypeDescription.class).getName());
-        sb.append(", method=").append(annotation.getValue(METHOD).resolve(String.class));
+        sb.append("type=").append(typeName());
+        sb.append(", method=").append(methodName());
         sb.append(", parameters=[");
         boolean first = true;
-        for (TypeDescription parameter : annotation.getValue(PARAMETERS).resolve(TypeDescription[].class)) {
+        for (String parameter : parameterNames()) {
             if (first) {
                 first = false;
             } else {
                 sb.append(",");
             }
-            sb.append(parameter.getName());
+            sb.append(parameter);
         }
         sb.append("]");
         return sb.append(")").toString();
     }
 
+    private static class ObservationNames extends ClassVisitor {
+
+        private final Set<String> observationNames;
+
+        ObservationNames(Set<String> observationNames) {
+            super(Opcodes.ASM6);
+            this.observationNames = observationNames;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            return new MethodVisitor(Opcodes.ASM6) {
+
+                // The observation name is the last argument of observe and therefore pushed right before the call.
+                private String constant;
+
+                @Override
+                public void visitLdcInsn(Object value) {
+                    constant = value instanceof String ? (String) value : null;
+                }
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                    if (constant != null && owner.equals("com/inaos/jam/boot/JamAgentDispatcher") && name.equals("observe")) {
+                        observationNames.add(constant);
+                    }
+                    constant = null;
+                }
+
+                @Override
+                public void visitInsn(int opcode) {
+                    constant = null;
+                }
+
+                @Override
+                public void visitIntInsn(int opcode, int operand) {
+                    constant = null;
+                }
+
+                @Override
+                public void visitVarInsn(int opcode, int var) {
+                    constant = null;
+                }
+
+                @Override
+                public void visitTypeInsn(int opcode, String type) {
+                    constant = null;
+                }
+
+                @Override
+                public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                    constant = null;
+                }
+
+                @Override
+                public void visitJumpInsn(int opcode, Label label) {
+                    constant = null;
+                }
+
+                @Override
+                public void visitLabel(Label label) {
+                    constant = null;
+                }
+            };
+        }
+    }
+
     static class Binaries {
 
         final List<DynamicType.Unloaded<?>> types;
@@ -19,40 +19,134 @@ package com.inaos.jam.agent;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.api.Acceleration;
 import com.inaos.jam.observation.Observation;
 import com.inaos.jam.observation.SerializedValue;
+import com.inaos.jam.observation.kryo.Deltas;
+import com.inaos.jam.observation.kryo.RawArrays;
 
 import java.io.ByteArrayOutputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class ObservationBuilder {
 
+    private static final int INITIAL_CAPACITY = 3;
+
+    private final int id;
+
     private final String name;
 
-    private final Map<String, SerializedValue> values;
+    private final boolean rawArrays;
+
+    private final boolean deltas;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+
+    private SerializedValue[] values = new SerializedValue[INITIAL_CAPACITY];
 
-    ObservationBuilder(String name) {
+    private Deferred[] deferred;
+
+    private int size;
+
+    private boolean suppressed;
+
+    ObservationBuilder(int id, String name, boolean rawArrays, boolean deltas) {
+        this.id = id;
         this.name = name;
-        values = new HashMap<String, SerializedValue>();
+        this.rawArrays = rawArrays;
+        this.deltas = deltas;
     }
 
     void serialize(Kryo kryo, String name, Class<?> type, Object argument) {
-        if (values.containsKey(name)) {
-            throw new IllegalArgumentException("Key " + name + " is already registered");
-        }
-        values.put(name, make(kryo, type, argument));
+        add(name, make(kryo, type, argument), null);
     }
 
     void serialize(Kryo kryo, String name, Class<?>[] types, Object[] arguments) {
-        if (values.containsKey(name)) {
-            throw new IllegalArgumentException("Key " + name + " is already registered");
+        add(name, make(kryo, types, arguments), null);
+    }
+
+    /**
+     * Defers the serialization of an argument to a snapshot of it. Returns {@code false} if the argument cannot be
+     * snapshot, such that the caller serializes it instead and only resolves a serializer for this case.
+     */
+    boolean defer(ArgumentSnapshot snapshot, String name, Class<?> type, Object argument) {
+        Object copy = type == void.class ? ArgumentSnapshot.UNSUPPORTED : snapshot.of(argument);
+        if (copy == ArgumentSnapshot.UNSUPPORTED) {
+            return false;
+        }
+        defer(name, new Class<?>[]{type}, new Object[]{copy});
+        return true;
+    }
+
+    boolean defer(ArgumentSnapshot snapshot, String name, Class<?>[] types, Object[] arguments) {
+        Object[] copies = snapshot.of(arguments);
+        if (copies == null) {
+            return false;
+        }
+        defer(name, types, copies);
+        return true;
+    }
+
+    private void defer(String name, Class<?>[] types, Object[] copies) {
+        add(name, null, new Deferred(types, copies));
+    }
+
+    private void add(String name, SerializedValue value, Deferred deferred) {
+        for (int index = 0; index < size; index++) {
+            if (keys[index].equals(name)) {
+                throw new IllegalArgumentException("Key " + name + " is already registered");
+            }
         }
-        values.put(name, make(kryo, types, arguments));
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            if (this.deferred != null) {
+                this.deferred = Arrays.copyOf(this.deferred, size * 2);
+            }
+        }
+        if (deferred != null && this.deferred == null) {
+            this.deferred = new Deferred[keys.length];
+        }
+        keys[size] = name;
+        values[size] = value;
+        if (this.deferred != null) {
+            this.deferred[size] = deferred;
+        }
+        size++;
+    }
+
+    int id() {
+        return id;
     }
 
-    Observation toObservation() {
-        return new Observation(name, values);
+    /**
+     * Discards this observation after its arguments were attached, all further values are ignored.
+     */
+    void suppress() {
+        suppressed = true;
+    }
+
+    boolean isSuppressed() {
+        return suppressed;
+    }
+
+    /**
+     * Completes the observation. If deltas are enabled, transformed arguments are written as a delta against the
+     * arguments if that is smaller, as in-place computations typically only change parts of their arguments.
+     */
+    Observation toObservation(Kryo kryo) {
+        if (deferred != null) {
+            for (int index = 0; index < size; index++) {
+                if (deferred[index] != null) {
+                    values[index] = make(kryo, deferred[index].types, deferred[index].copies);
+                    deferred[index] = null;
+                }
+            }
+        }
+        Observation observation = new Observation(name,
+                size == keys.length ? keys : Arrays.copyOf(keys, size),
+                size == values.length ? values : Arrays.copyOf(values, size));
+        return deltas ? Deltas.encode(observation, Acceleration.TRANSFORMED_ARGUMENTS, Acceleration.ARGUMENTS) : observation;
     }
 
 
@@ -63,8 +157,12 @@ class ObservationBuilder {
         String[] serializedTypes = {type.getName()};
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
         Output out = new Output(bytes);
-        kryo.writeObject(out, 1);
-        kryo.writeClassAndObject(out, argument);
+        if (rawArrays) {
+            RawArrays.write(kryo, out, new Object[]{argument});
+        } else {
+            kryo.writeObject(out, 1);
+            kryo.writeClassAndObject(out, argument);
+        }
         out.close();
         return new SerializedValue(serializedTypes, bytes.toByteArray());
     }
@@ -77,11 +175,27 @@ class ObservationBuilder {
         }
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
         Output out = new Output(bytes);
-        kryo.writeObject(out, arguments.length);
-        for (Object argument : arguments) {
-            kryo.writeClassAndObject(out, argument);
+        if (rawArrays) {
+            RawArrays.write(kryo, out, arguments);
+        } else {
+            kryo.writeObject(out, arguments.length);
+            for (Object argument : arguments) {
+                kryo.writeClassAndObject(out, argument);
+            }
         }
         out.close();
         return new SerializedValue(serializedTypes, bytes.toByteArray());
     }
+
+    private static class Deferred {
+
+        final Class<?>[] types;
+
+        final Object[] copies;
+
+        Deferred(Class<?>[] types, Object[] copies) {
+            this.types = types;
+            this.copies = copies;
+        }
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassVisitor;
+import net.bytebuddy.jar.asm.ClassWriter;
+import net.bytebuddy.jar.asm.Handle;
+import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+
+import java.util.Map;
+
+/**
+ * Creates a copy of an advice class where every call of {@code JamAgentDispatcher.observe(String)} with a constant
+ * name is replaced by a call of {@code JamAgentDispatcher.observe(int, String)} that passes the observation id that the
+ * agent registered for this name. Observations with different names are therefore sampled with their own budget, and
+ * the name is not resolved to its id on every call. The id is pushed right before the name such that the stack map
+ * frames remain valid, only the maximum stack size is recomputed.
+ */
+class ObservationIdAdvice extends ClassVisitor {
+
+    private static final String DISPATCHER = "com/inaos/jam/boot/JamAgentDispatcher",
+            OBSERVE = "(Ljava/lang/String;)Ljava/lang/Object;",
+            OBSERVE_ID = "(ILjava/lang/String;)Ljava/lang/Object;";
+
+    private final Map<String, Integer> observationIds;
+
+    private ObservationIdAdvice(ClassVisitor classVisitor, Map<String, Integer> observationIds) {
+        super(Opcodes.ASM6, classVisitor);
+        this.observationIds = observationIds;
+    }
+
+    static byte[] make(byte[] binaryRepresentation, Map<String, Integer> observationIds) {
+        ClassReader classReader = new ClassReader(binaryRepresentation);
+        ClassWriter classWriter = new ClassWriter(classReader, ClassWriter.COMPUTE_MAXS);
+        classReader.accept(new ObservationIdAdvice(classWriter, observationIds), 0);
+        return classWriter.toByteArray();
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        return new Rewriting(super.visitMethod(access, name, descriptor, signature, exceptions), observationIds);
+    }
+
+    /**
+     * Defers a constant name until the next instruction shows if it is the argument of {@code observe}.
+     */
+    private static class Rewriting extends MethodVisitor {
+
+        private final Map<String, Integer> observationIds;
+
+        private String constant;
+
+        Rewriting(MethodVisitor methodVisitor, Map<String, Integer> observationIds) {
+            super(Opcodes.ASM6, methodVisitor);
+            this.observationIds = observationIds;
+        }
+
+        private void flush() {
+            if (constant != null) {
+                super.visitLdcInsn(constant);
+                constant = null;
+            }
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            flush();
+            if (value instanceof String && observationIds.containsKey(value)) {
+                constant = (String) value;
+            } else {
+                super.visitLdcInsn(value);
+            }
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            if (constant != null && opcode == Opcodes.INVOKESTATIC && owner.equals(DISPATCHER) && name.equals("observe") && descriptor.equals(OBSERVE)) {
+                int id = observationIds.get(constant);
+                if (id <= 5) {
+                    super.visitInsn(Opcodes.ICONST_0 + id);
+                } else if (id <= Byte.MAX_VALUE) {
+                    super.visitIntInsn(Opcodes.BIPUSH, id);
+                } else if (id <= Short.MAX_VALUE) {
+                    super.visitIntInsn(Opcodes.SIPUSH, id);
+                } else {
+                    super.visitLdcInsn(id);
+                }
+                flush();
+                super.visitMethodInsn(opcode, owner, name, OBSERVE_ID, isInterface);
+            } else {
+                flush();
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            }
+        }
+
+        @Override
+        public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+            flush();
+            super.visitFrame(type, nLocal, local, nStack, stack);
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            flush();
+            super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            flush();
+            super.visitIntInsn(opcode, operand);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            flush();
+            super.visitVarInsn(opcode, var);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            flush();
+            super.visitTypeInsn(opcode, type);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            flush();
+            super.visitFieldInsn(opcode, owner, name, descriptor);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+            flush();
+            super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            flush();
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            flush();
+            super.visitLabel(label);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            flush();
+            super.visitIincInsn(var, increment);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            flush();
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            flush();
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            flush();
+            super.visitMultiANewArrayInsn(descriptor, numDimensions);
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            flush();
+            super.visitMaxs(maxStack, maxLocals);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Limits the CPU time that is spent on observations to a fraction of the process's CPU time. Every thread accounts
+ * the CPU time that it spends on observations, a background thread periodically compares the sum to the process's CPU
+ * time and scales the probability by which calls are sampled. If the thread CPU time is not available, the wall time
+ * of an observation is accounted instead. If the process CPU time is not available, the wall time of all processors
+ * is used instead. The accounts of terminated threads are folded into a total.
+ */
+public class OverheadGovernor implements OverheadGovernorMBean, Runnable {
+
+    private static final long PERIOD = 1000; // 1 second
+
+    private static final double MIN_RATE = 1.0 / (1 << 20), MIN_STEP = 0.25, MAX_STEP = 2;
+
+    private final double target;
+
+    private final List<Account> accounts = new CopyOnWriteArrayList<Account>();
+
+    private final ThreadLocal<Account> account = new ThreadLocal<Account>() {
+        @Override
+        protected Account initialValue() {
+            Account account = new Account(Thread.currentThread());
+            accounts.add(account);
+            return account;
+        }
+    };
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final boolean threadCpuTime;
+
+    private final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+
+    private final Method processCpuTime = processCpuTime(operatingSystem);
+
+    private volatile double rate = 1, overhead;
+
+    private volatile long retiredNanos, retiredSkipped;
+
+    private long lastNanos, lastCpuNanos, lastWallNanos;
+
+    OverheadGovernor(double target) {
+        if (target <= 0 || target > 1) {
+            throw new IllegalArgumentException("Overhead target must be within (0, 1]: " + target);
+        }
+        this.target = target;
+        boolean threadCpuTime;
+        try {
+            threadCpuTime = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+        } catch (UnsupportedOperationException e) {
+            threadCpuTime = false;
+        }
+        this.threadCpuTime = threadCpuTime;
+    }
+
+    // The extended bean is not available on every VM and is therefore resolved reflectively.
+    private static Method processCpuTime(OperatingSystemMXBean operatingSystem) {
+        try {
+            Class<?> type = Class.forName("com.sun.management.OperatingSystemMXBean");
+            return type.isInstance(operatingSystem) ? type.getMethod("getProcessCpuTime") : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    void start() {
+        lastCpuNanos = processCpuNanos();
+        lastWallNanos = System.nanoTime();
+        Thread thread = new Thread(this, "jam-governor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean sample() {
+        double rate = this.rate;
+        if (rate >= 1) {
+            return true;
+        }
+        Account account = this.account.get();
+        // A xorshift generator per thread avoids contention on a shared random.
+        long seed = account.seed;
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        account.seed = seed;
+        if ((seed >>> 11) * 0x1.0p-53 < rate) {
+            return true;
+        }
+        account.skipped++;
+        return false;
+    }
+
+    /**
+     * Returns the current thread's CPU time, or the wall time if the CPU time is not available, as the start of a
+     * measurement of the time that is {@link #spent(long) spent} on an observation.
+     */
+    long nanos() {
+        return threadCpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    void spent(long nanos) {
+        account.get().nanos += nanos;
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(PERIOD);
+            } catch (InterruptedException e) {
+                return;
+            }
+            adjust();
+        }
+    }
+
+    private void adjust() {
+        retire();
+        long nanos = getObservationNanos(), cpuNanos = processCpuNanos(), wallNanos = System.nanoTime();
+        long spent = nanos - lastNanos, available = cpuNanos < 0
+                ? (wallNanos - lastWallNanos) * Runtime.getRuntime().availableProcessors()
+                : cpuNanos - lastCpuNanos;
+        lastNanos = nanos;
+        lastCpuNanos = cpuNanos;
+        lastWallNanos = wallNanos;
+        if (available <= 0) {
+            return;
+        }
+        overhead = (double) spent / available;
+        // The time spent is proportional to the rate such that the rate is scaled by the ratio of target and overhead.
+        double step = overhead == 0 ? MAX_STEP : Math.max(MIN_STEP, Math.min(MAX_STEP, target / overhead));
+        rate = Math.max(MIN_RATE, Math.min(1, rate * step));
+    }
+
+    // Only invoked by the governor thread such that the retired totals are not updated concurrently.
+    private void retire() {
+        List<Account> retired = new ArrayList<Account>();
+        for (Account account : accounts) {
+            Thread thread = account.thread.get();
+            if (thread == null || !thread.isAlive()) {
+                retired.add(account);
+            }
+        }
+        if (retired.isEmpty()) {
+            return;
+        }
+        long nanos = 0, skipped = 0;
+        for (Account account : retired) {
+            nanos += account.nanos;
+            skipped += account.skipped;
+        }
+        // The totals are raised before removing the accounts such that a reader might count them twice but never loses them.
+        retiredNanos += nanos;
+        retiredSkipped += skipped;
+        accounts.removeAll(retired);
+    }
+
+    private long processCpuNanos() {
+        if (processCpuTime == null) {
+            return -1;
+        }
+        try {
+            return (Long) processCpuTime.invoke(operatingSystem);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public double getTarget() {
+        return target;
+    }
+
+    @Override
+    public double getRate() {
+        return rate;
+    }
+
+    @Override
+    public double getOverhead() {
+        return overhead;
+    }
+
+    @Override
+    public long getObservationNanos() {
+        long nanos = retiredNanos;
+        for (Account account : accounts) {
+            nanos += account.nanos;
+        }
+        return nanos;
+    }
+
+    @Override
+    public long getSkipped() {
+        long skipped = retiredSkipped;
+        for (Account account : accounts) {
+            skipped += account.skipped;
+        }
+        return skipped;
+    }
+
+    @Override
+    public String toString() {
+        return "OverheadGovernor{target=" + target + ", rate=" + rate + ", overhead=" + overhead + "}";
+    }
+
+    // Written by a single thread only and read approximately by the governor.
+    private static class Account {
+
+        final WeakReference<Thread> thread;
+
+        volatile long nanos, skipped;
+
+        long seed = System.nanoTime() | 1;
+
+        Account(Thread thread) {
+            this.thread = new WeakReference<Thread>(thread);
+        }
+    }
+}
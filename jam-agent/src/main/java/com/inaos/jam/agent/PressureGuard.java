@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suspends sampling while the heap or the volume of the sample file is nearly full. Sampling is suspended once the
+ * usage of a heap pool after garbage collection or the usage of the volume exceeds its high-water mark and is resumed
+ * once it falls below its low-water mark. Heap pools notify the guard of exceeded thresholds, a background thread
+ * checks the volume and resumes sampling. Thresholds that the application already set on a pool are not replaced,
+ * such pools are only polled and their notifications are ignored as are notifications of other pools.
+ */
+public class PressureGuard implements PressureGuardMBean, NotificationListener, Runnable {
+
+    private static final long PERIOD = 1000; // 1 second
+
+    private final double heapHigh, heapLow, diskHigh, diskLow;
+
+    private final File folder;
+
+    private final List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+
+    // The notification type of every pool on which the guard set the threshold, only written before listening.
+    private final Map<String, String> thresholds = new HashMap<String, String>();
+
+    private final AtomicLong heapSuppressed = new AtomicLong(), diskSuppressed = new AtomicLong(), suspensions = new AtomicLong();
+
+    private volatile boolean heapPressure, diskPressure;
+
+    /**
+     * Water marks are given in percent of the heap pools' maximum or of the volume's capacity. The disk guard is
+     * disabled if {@code target} is {@code null}.
+     */
+    PressureGuard(int heapHigh, int heapLow, int diskHigh, int diskLow, File target) {
+        if (heapLow > heapHigh || diskLow > diskHigh) {
+            throw new IllegalArgumentException("Low-water marks must not exceed high-water marks");
+        }
+        this.heapHigh = heapHigh / 100d;
+        this.heapLow = heapLow / 100d;
+        this.diskHigh = diskHigh / 100d;
+        this.diskLow = diskLow / 100d;
+        folder = target == null ? null : target.getAbsoluteFile().getParentFile();
+    }
+
+    void start() {
+        // Only tenured pools support usage thresholds, young pools are expected to fill up between collections.
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isUsageThresholdSupported() || pool.getUsage().getMax() <= 0) {
+                continue;
+            }
+            long threshold = (long) (pool.getUsage().getMax() * heapHigh);
+            if (pool.isCollectionUsageThresholdSupported()) {
+                if (pool.getCollectionUsageThreshold() == 0) {
+                    pool.setCollectionUsageThreshold(threshold);
+                    thresholds.put(pool.getName(), MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED);
+                }
+            } else if (pool.getUsageThreshold() == 0) {
+                pool.setUsageThreshold(threshold);
+                thresholds.put(pool.getName(), MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED);
+            }
+            pools.add(pool);
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+        Thread thread = new Thread(this, "jam-pressure-guard");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns {@code true} and counts the suppressed sample if sampling is suspended.
+     */
+    boolean suppress() {
+        if (heapPressure) {
+            heapSuppressed.incrementAndGet();
+            return true;
+        } else if (diskPressure) {
+            diskSuppressed.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!(notification.getUserData() instanceof CompositeData)
+                || !notification.getType().equals(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED)
+                && !notification.getType().equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED)) {
+            return;
+        }
+        MemoryNotificationInfo info = MemoryNotificationInfo.from((CompositeData) notification.getUserData());
+        if (notification.getType().equals(thresholds.get(info.getPoolName()))) {
+            heapPressure(true);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            double heapUsage = heapUsage();
+            if (heapPressure ? heapUsage < heapLow : heapUsage > heapHigh) {
+                heapPressure(!heapPressure);
+            }
+            if (folder != null) {
+                double diskUsage = diskUsage();
+                if (diskPressure ? diskUsage < diskLow : diskUsage > diskHigh) {
+                    diskPressure = !diskPressure;
+                    if (diskPressure) {
+                        suspensions.incrementAndGet();
+                    }
+                }
+            }
+            try {
+                Thread.sleep(PERIOD);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void heapPressure(boolean pressure) {
+        if (pressure && !heapPressure) {
+            suspensions.incrementAndGet();
+        }
+        heapPressure = pressure;
+    }
+
+    /**
+     * Returns the highest usage of all heap pools, after the last garbage collection if the pool supports it.
+     */
+    private double heapUsage() {
+        double usage = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            MemoryUsage memoryUsage = pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsage() : pool.getUsage();
+            if (memoryUsage != null && memoryUsage.getMax() > 0) {
+                usage = Math.max(usage, (double) memoryUsage.getUsed() / memoryUsage.getMax());
+            }
+        }
+        return usage;
+    }
+
+    private double diskUsage() {
+        long total = folder.getTotalSpace();
+        return total == 0 ? 0 : 1 - (double) folder.getUsableSpace() / total;
+    }
+
+    @Override
+    public boolean isHeapPressure() {
+        return heapPressure;
+    }
+
+    @Override
+    public boolean isDiskPressure() {
+        return diskPressure;
+    }
+
+    @Override
+    public long getHeapSuppressed() {
+        return heapSuppressed.get();
+    }
+
+    @Override
+    public long getDiskSuppressed() {
+        return diskSuppressed.get();
+    }
+
+    @Override
+    public long getSuspensions() {
+        return suspensions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PressureGuard{heapPressure=" + heapPressure + ", diskPressure=" + diskPressure + "}";
+    }
+}
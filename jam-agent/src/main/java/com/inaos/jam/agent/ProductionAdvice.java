@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import com.inaos.jam.api.DevMode;
+
+import net.bytebuddy.jar.asm.AnnotationVisitor;
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassVisitor;
+import net.bytebuddy.jar.asm.ClassWriter;
+import net.bytebuddy.jar.asm.Handle;
+import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.jar.asm.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates a copy of an advice class for production where {@code DevMode} is known to be {@code false}. Branches
+ * that are only taken in dev mode are removed, and unless a dispatcher records observations in production, also calls
+ * to {@code JamAgentDispatcher.attach} and {@code JamAgentDispatcher.commit} such that they do not count against the
+ * JIT compiler's inlining thresholds of the accelerated method. A dev mode branch is only removed if it is a forward
+ * jump over a block that is not entered from outside and that contains no exception handler. The maximum stack size
+ * and the number of locals are recomputed, the stack map frames of the retained code are kept as they remain valid.
+ */
+class ProductionAdvice extends ClassVisitor {
+
+    private static final String DEV_MODE = Type.getDescriptor(DevMode.class);
+
+    private static final String DISPATCHER = "com/inaos/jam/boot/JamAgentDispatcher";
+
+    private final Map<String, List<Boolean>> removable;
+
+    private final boolean observed;
+
+    private ProductionAdvice(ClassVisitor classVisitor, Map<String, List<Boolean>> removable, boolean observed) {
+        super(Opcodes.ASM6, classVisitor);
+        this.removable = removable;
+        this.observed = observed;
+    }
+
+    static byte[] make(byte[] binaryRepresentation, boolean observed) {
+        ClassReader classReader = new ClassReader(binaryRepresentation);
+        Map<String, List<Boolean>> removable = new HashMap<String, List<Boolean>>();
+        classReader.accept(new Analysis(removable), ClassReader.EXPAND_FRAMES);
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classReader.accept(new ProductionAdvice(classWriter, removable, observed), ClassReader.EXPAND_FRAMES);
+        return classWriter.toByteArray();
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+        List<Boolean> removable = this.removable.get(name + descriptor);
+        return new Stripping(methodVisitor, access, descriptor, removable == null ? new ArrayList<Boolean>() : removable, observed);
+    }
+
+    private static class Analysis extends ClassVisitor {
+
+        private final Map<String, List<Boolean>> removable;
+
+        Analysis(Map<String, List<Boolean>> removable) {
+            super(Opcodes.ASM6);
+            this.removable = removable;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            List<Boolean> removable = new ArrayList<Boolean>();
+            this.removable.put(name + descriptor, removable);
+            return new BranchAnalysis(access, descriptor, removable);
+        }
+    }
+
+    /**
+     * Locates the loads of a {@code DevMode} parameter that are directly followed by a conditional jump.
+     */
+    private abstract static class DevModeBranches extends MethodVisitor {
+
+        private final int access;
+
+        private final String descriptor;
+
+        private int parameter = -1;
+
+        private boolean loaded;
+
+        protected int slot = -1;
+
+        DevModeBranches(MethodVisitor methodVisitor, int access, String descriptor) {
+            super(Opcodes.ASM6, methodVisitor);
+            this.access = access;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+            if (descriptor.equals(DEV_MODE)) {
+                this.parameter = parameter;
+            }
+            return super.visitParameterAnnotation(parameter, descriptor, visible);
+        }
+
+        @Override
+        public void visitCode() {
+            if (parameter != -1) {
+                slot = (access & Opcodes.ACC_STATIC) == 0 ? 1 : 0;
+                Type[] types = Type.getArgumentTypes(descriptor);
+                for (int index = 0; index < parameter; index++) {
+                    slot += types[index].getSize();
+                }
+            }
+            super.visitCode();
+        }
+
+        protected abstract void onBranch(int opcode, Label label);
+
+        /**
+         * Returns {@code true} if the next instruction is retained.
+         */
+        protected abstract boolean onInstruction();
+
+        private void load() {
+            if (loaded) {
+                loaded = false;
+                if (onInstruction()) {
+                    super.visitVarInsn(Opcodes.ILOAD, slot);
+                }
+            }
+        }
+
+        private boolean instruction() {
+            load();
+            return onInstruction();
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            load();
+            super.visitLabel(label);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            if (opcode == Opcodes.ILOAD && var == slot && slot != -1 && !loaded) {
+                loaded = true;
+            } else if (instruction()) {
+                super.visitVarInsn(opcode, var);
+            }
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            if (loaded && (opcode == Opcodes.IFEQ || opcode == Opcodes.IFNE)) {
+                loaded = false;
+                onBranch(opcode, label);
+            } else if (instruction()) {
+                super.visitJumpInsn(opcode, label);
+            }
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (instruction()) {
+                super.visitInsn(opcode);
+            }
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            if (instruction()) {
+                super.visitIntInsn(opcode, operand);
+            }
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            if (instruction()) {
+                super.visitTypeInsn(opcode, type);
+            }
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            if (instruction()) {
+                super.visitFieldInsn(opcode, owner, name, descriptor);
+            }
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            if (instruction()) {
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            }
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+            if (instruction()) {
+                super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+            }
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            if (instruction()) {
+                super.visitLdcInsn(value);
+            }
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            if (instruction()) {
+                super.visitIincInsn(var, increment);
+            }
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            if (instruction()) {
+                super.visitTableSwitchInsn(min, max, dflt, labels);
+            }
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            if (instruction()) {
+                super.visitLookupSwitchInsn(dflt, keys, labels);
+            }
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            if (instruction()) {
+                super.visitMultiANewArrayInsn(descriptor, numDimensions);
+            }
+        }
+    }
+
+    private static class BranchAnalysis extends DevModeBranches {
+
+        private final List<Boolean> removable;
+
+        private final List<Region> regions = new ArrayList<Region>();
+
+        private final Set<Label> visited = new HashSet<Label>(), handlers = new HashSet<Label>();
+
+        private final Map<Label, List<Region>> jumps = new HashMap<Label, List<Region>>();
+
+        private boolean assigned;
+
+        BranchAnalysis(int access, String descriptor, List<Boolean> removable) {
+            super(null, access, descriptor);
+            this.removable = removable;
+        }
+
+        @Override
+        protected void onBranch(int opcode, Label label) {
+            removable.add(opcode == Opcodes.IFNE || !visited.contains(label));
+            if (opcode == Opcodes.IFEQ) {
+                regions.add(new Region(removable.size() - 1, label));
+            }
+        }
+
+        @Override
+        protected boolean onInstruction() {
+            return true;
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            if (var == slot && opcode == Opcodes.ISTORE) {
+                assigned = true;
+            }
+            super.visitVarInsn(opcode, var);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            if (var == slot) {
+                assigned = true;
+            }
+            super.visitIincInsn(var, increment);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            jump(label);
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            jump(dflt);
+            for (Label label : labels) {
+                jump(label);
+            }
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            jump(dflt);
+            for (Label label : labels) {
+                jump(label);
+            }
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        private void jump(Label label) {
+            List<Region> origins = jumps.get(label);
+            if (origins == null) {
+                jumps.put(label, new ArrayList<Region>(regions));
+            } else {
+                origins.retainAll(regions);
+            }
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+            handlers.add(start);
+            handlers.add(end);
+            handlers.add(handler);
+            super.visitTryCatchBlock(start, end, handler, type);
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            super.visitLabel(label);
+            visited.add(label);
+            for (int index = regions.size() - 1; index >= 0; index--) {
+                if (regions.get(index).end == label) {
+                    regions.remove(index);
+                }
+            }
+            List<Region> origins = jumps.get(label);
+            for (Region region : regions) {
+                // A block that is entered from outside or that contains exception handling cannot be removed.
+                if (handlers.contains(label) || origins != null && !origins.contains(region)) {
+                    removable.set(region.index, false);
+                }
+            }
+        }
+
+        @Override
+        public void visitEnd() {
+            if (assigned) {
+                for (int index = 0; index < removable.size(); index++) {
+                    removable.set(index, false);
+                }
+            }
+            super.visitEnd();
+        }
+    }
+
+    private static class Region {
+
+        final int index;
+
+        final Label end;
+
+        Region(int index, Label end) {
+            this.index = index;
+            this.end = end;
+        }
+    }
+
+    private static class Stripping extends DevModeBranches {
+
+        private final List<Boolean> removable;
+
+        private final boolean observed;
+
+        private int branch;
+
+        private Label skipping;
+
+        private Object[] frame;
+
+        Stripping(MethodVisitor methodVisitor, int access, String descriptor, List<Boolean> removable, boolean observed) {
+            super(methodVisitor, access, descriptor);
+            this.removable = removable;
+            this.observed = observed;
+        }
+
+        @Override
+        protected void onBranch(int opcode, Label label) {
+            if (skipping != null) {
+                branch++;
+            } else if (removable.get(branch++)) {
+                // The branch is never taken if it is guarded by IFNE, otherwise the guarded block is skipped.
+                if (opcode == Opcodes.IFEQ) {
+                    skipping = label;
+                }
+            } else {
+                onInstruction();
+                mv.visitVarInsn(Opcodes.ILOAD, slot);
+                mv.visitJumpInsn(opcode, label);
+            }
+        }
+
+        @Override
+        protected boolean onInstruction() {
+            if (skipping != null) {
+                return false;
+            }
+            if (frame != null) {
+                mv.visitFrame((Integer) frame[0], (Integer) frame[1], (Object[]) frame[2], (Integer) frame[3], (Object[]) frame[4]);
+                frame = null;
+            }
+            return true;
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            super.visitLabel(label);
+            if (label == skipping) {
+                skipping = null;
+            }
+        }
+
+        @Override
+        public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+            // Frames are deferred as removing a block can move two frames onto the same offset where the latter applies.
+            if (skipping == null) {
+                frame = new Object[]{type, numLocal, local, numStack, stack};
+            }
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            if (skipping == null) {
+                super.visitLineNumber(line, start);
+            }
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            if (!observed && owner.equals(DISPATCHER) && (name.equals("attach") || name.equals("commit"))) {
+                Type[] types = Type.getArgumentTypes(descriptor);
+                for (int index = types.length - 1; index >= 0; index--) {
+                    visitInsn(types[index].getSize() == 2 ? Opcodes.POP2 : Opcodes.POP);
+                }
+            } else {
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import java.lang.reflect.Array;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admits observations by a quota per shape of their arguments such that a capture covers calls of rare shapes rather
+ * than many calls of the same shape. A shape is the name of the runtime type of every argument, whether it is
+ * {@code null} and the length of every array rounded up to a power of two. Types are tracked by name such that a shape
+ * does not retain the class loader of an argument. Shapes that exceed the number of tracked shapes are not admitted.
+ */
+class ShapeStrata {
+
+    private static final int MAX_SHAPES = 64 * 1024;
+
+    private final int quota;
+
+    private final ConcurrentMap<Shape, AtomicInteger> counts = new ConcurrentHashMap<Shape, AtomicInteger>();
+
+    ShapeStrata(int quota) {
+        this.quota = quota;
+    }
+
+    boolean admit(int id, Object[] arguments) {
+        Shape shape = new Shape(id, arguments);
+        AtomicInteger count = counts.get(shape);
+        if (count == null) {
+            if (counts.size() >= MAX_SHAPES) {
+                return false;
+            }
+            AtomicInteger previous = counts.putIfAbsent(shape, count = new AtomicInteger());
+            if (previous != null) {
+                count = previous;
+            }
+        }
+        return count.get() < quota && count.incrementAndGet() <= quota;
+    }
+
+    /**
+     * Returns the quota that an admitted observation consumed if it is suppressed subsequently.
+     */
+    void revoke(int id, Object[] arguments) {
+        AtomicInteger count = counts.get(new Shape(id, arguments));
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    private static class Shape {
+
+        private final int id;
+
+        private final String[] types;
+
+        private final byte[] lengths;
+
+        private final int hashCode;
+
+        Shape(int id, Object[] arguments) {
+            this.id = id;
+            types = new String[arguments.length];
+            lengths = new byte[arguments.length];
+            int hashCode = id;
+            for (int index = 0; index < arguments.length; index++) {
+                Object argument = arguments[index];
+                if (argument != null) {
+                    types[index] = argument.getClass().getName();
+                    if (argument.getClass().isArray()) {
+                        // The exponent of the next power of two, offset by one to distinguish empty arrays.
+                        int length = Array.getLength(argument);
+                        lengths[index] = (byte) (length == 0 ? 0 : Integer.SIZE + 1 - Integer.numberOfLeadingZeros(length - 1));
+                    }
+                }
+                hashCode = 31 * (31 * hashCode + (types[index] == null ? 0 : types[index].hashCode())) + lengths[index];
+            }
+            this.hashCode = hashCode;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            } else if (!(object instanceof Shape)) {
+                return false;
+            }
+            Shape shape = (Shape) object;
+            if (id != shape.id || hashCode != shape.hashCode || types.length != shape.types.length) {
+                return false;
+            }
+            for (int index = 0; index < types.length; index++) {
+                if (types[index] == null ? shape.types[index] != null : !types[index].equals(shape.types[index])
+                        || lengths[index] != shape.lengths[index]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import com.inaos.jam.boot.StartupStatistics;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.utility.JavaModule;
+
+import java.lang.management.ManagementFactory;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Records the agent's startup phases and the time that is spent for matching and transforming classes.
+ */
+class StartupListener extends AgentBuilder.Listener.Adapter {
+
+    private final StartupStatistics statistics = StartupStatistics.INSTANCE;
+
+    // Class loading can be triggered during a transformation such that discoveries are nested on a thread.
+    private final ThreadLocal<List<long[]>> discoveries = new ThreadLocal<List<long[]>>() {
+        @Override
+        protected List<long[]> initialValue() {
+            return new ArrayList<long[]>();
+        }
+    };
+
+    void bootJarExtraction(long nanos) {
+        statistics.bootJarExtraction(nanos);
+    }
+
+    void discovery(long nanos) {
+        statistics.discovery(nanos);
+    }
+
+    void installation(long nanos) {
+        statistics.installation(nanos);
+    }
+
+    AgentBuilder.RawMatcher matcher(AgentBuilder.RawMatcher matcher) {
+        return new TimedMatcher(matcher, statistics);
+    }
+
+    void register() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.inaos.jam:type=StartupStatistics");
+        if (!server.isRegistered(name)) {
+            server.registerMBean(statistics, name);
+        }
+    }
+
+    String summary() {
+        return statistics.getSummary();
+    }
+
+    @Override
+    public void onDiscovery(String typeName, ClassLoader classLoader, JavaModule module, boolean loaded) {
+        statistics.inspected();
+        discoveries.get().add(new long[]{System.nanoTime(), 0});
+    }
+
+    @Override
+    public void onTransformation(TypeDescription typeDescription, ClassLoader classLoader, JavaModule module, boolean loaded, DynamicType dynamicType) {
+        List<long[]> discoveries = this.discoveries.get();
+        if (!discoveries.isEmpty()) {
+            discoveries.get(discoveries.size() - 1)[1] = 1;
+        }
+    }
+
+    @Override
+    public void onComplete(String typeName, ClassLoader classLoader, JavaModule module, boolean loaded) {
+        List<long[]> discoveries = this.discoveries.get();
+        if (discoveries.isEmpty()) {
+            return;
+        }
+        long[] discovery = discoveries.remove(discoveries.size() - 1);
+        if (discovery[1] == 1) {
+            statistics.transformed(System.nanoTime() - discovery[0]);
+        }
+    }
+
+    private static class TimedMatcher implements AgentBuilder.RawMatcher {
+
+        private final AgentBuilder.RawMatcher matcher;
+
+        private final StartupStatistics statistics;
+
+        TimedMatcher(AgentBuilder.RawMatcher matcher, StartupStatistics statistics) {
+            this.matcher = matcher;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public boolean matches(TypeDescription typeDescription,
+                               ClassLoader classLoader,
+                               JavaModule module,
+                               Class<?> classBeingRedefined,
+                               ProtectionDomain protectionDomain) {
+            long start = System.nanoTime();
+            try {
+                return matcher.matches(typeDescription, classLoader, module, classBeingRedefined, protectionDomain);
+            } finally {
+                statistics.matching(System.nanoTime() - start);
+            }
+        }
+    }
+}
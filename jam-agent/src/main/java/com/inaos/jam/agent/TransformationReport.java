@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.ClassFileLocator;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassVisitor;
+import net.bytebuddy.jar.asm.ClassWriter;
+import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.utility.JavaModule;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Reports the bytecode size of every accelerated method before and after weaving as a CSV file, together with the
+ * number of applied advice classes and if the woven method exceeds the JIT compiler's inlining or compilation limits.
+ */
+class TransformationReport extends AgentBuilder.Listener.Adapter {
+
+    private static final int HUGE_METHOD_LIMIT = 8000;
+
+    private final PrintWriter out;
+
+    private final int maxInlineSize, freqInlineSize;
+
+    private final List<Entry> entries = new CopyOnWriteArrayList<Entry>();
+
+    TransformationReport(File file) throws IOException {
+        out = new PrintWriter(new FileWriter(file));
+        maxInlineSize = vmOption("MaxInlineSize", 35);
+        freqInlineSize = vmOption("FreqInlineSize", 325);
+        out.println("type,method,descriptor,size_before,size_after,advice_count,exceeds_max_inline_size,exceeds_freq_inline_size,exceeds_huge_method_limit");
+        out.flush();
+    }
+
+    void register(MethodAccelleration accelleration, int adviceCount) {
+        entries.add(new Entry(accelleration, adviceCount));
+    }
+
+    @Override
+    public void onTransformation(TypeDescription typeDescription,
+                                 ClassLoader classLoader,
+                                 JavaModule module,
+                                 boolean loaded,
+                                 DynamicType dynamicType) {
+        try {
+            Map<String, Integer> before = codeSizes(ClassFileLocator.ForClassLoader.of(classLoader).locate(typeDescription.getName()).resolve());
+            Map<String, Integer> after = codeSizes(dynamicType.getBytes());
+            for (MethodDescription method : typeDescription.getDeclaredMethods()) {
+                int adviceCount = 0;
+                for (Entry entry : entries) {
+                    if (entry.accelleration.typeName().equals(typeDescription.getName()) && entry.accelleration.method().matches(method)) {
+                        adviceCount += entry.adviceCount;
+                    }
+                }
+                String key = method.getInternalName() + method.getDescriptor();
+                Integer sizeBefore = before.get(key), sizeAfter = after.get(key);
+                if (adviceCount == 0 || sizeAfter == null) {
+                    continue;
+                }
+                synchronized (out) {
+                    out.println(typeDescription.getName()
+                            + "," + method.getInternalName()
+                            + "," + method.getDescriptor()
+                            + "," + (sizeBefore == null ? "" : sizeBefore)
+                            + "," + sizeAfter
+                            + "," + adviceCount
+                            + "," + (sizeAfter > maxInlineSize)
+                            + "," + (sizeAfter > freqInlineSize)
+                            + "," + (sizeAfter > HUGE_METHOD_LIMIT));
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int vmOption(String name, int defaultValue) {
+        try {
+            CompositeData option = (CompositeData) ManagementFactory.getPlatformMBeanServer().invoke(new ObjectName("com.sun.management:type=HotSpotDiagnostic"),
+                    "getVMOption",
+                    new Object[]{name},
+                    new String[]{String.class.getName()});
+            return Integer.parseInt((String) option.get("value"));
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+
+    // Reads the length of every method's code attribute from a class file.
+    private static Map<String, Integer> codeSizes(byte[] binaryRepresentation) {
+        ClassReader classReader = new ClassReader(binaryRepresentation);
+        Map<String, Integer> sizes = new HashMap<String, Integer>();
+        classReader.accept(new CodeSizes(new ClassWriter(classReader, 0), sizes), ClassReader.SKIP_FRAMES);
+        return sizes;
+    }
+
+    /**
+     * Rewrites a class with a writer that shares the class's constant pool such that every instruction keeps its
+     * size. The offset of a label that is placed behind the last instruction is then the length of the method's code.
+     */
+    private static class CodeSizes extends ClassVisitor {
+
+        private final Map<String, Integer> sizes;
+
+        CodeSizes(ClassVisitor classVisitor, Map<String, Integer> sizes) {
+            super(Opcodes.ASM6, classVisitor);
+            this.sizes = sizes;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, final String name, final String descriptor, String signature, String[] exceptions) {
+            return new MethodVisitor(Opcodes.ASM6, super.visitMethod(access, name, descriptor, signature, exceptions)) {
+                @Override
+                public void visitMaxs(int maxStack, int maxLocals) {
+                    Label end = new Label();
+                    super.visitLabel(end);
+                    sizes.put(name + descriptor, end.getOffset());
+                    super.visitMaxs(maxStack, maxLocals);
+                }
+            };
+        }
+    }
+
+    private static class Entry {
+
+        final MethodAccelleration accelleration;
+
+        final int adviceCount;
+
+        Entry(MethodAccelleration accelleration, int adviceCount) {
+            this.accelleration = accelleration;
+            this.adviceCount = adviceCount;
+        }
+    }
+}
@@ -18,13 +18,14 @@
 package com.inaos.jam.agent;
 
 import com.inaos.jam.api.DevMode;
+import com.inaos.jam.api.Fallback;
 
 import net.bytebuddy.asm.Advice;
 
 class TrivialEnterAdvice {
 
     @Advice.OnMethodEnter(skipOn = Advice.OnDefaultValue.class)
-    static boolean enter(@DevMode boolean devMode) {
-        return devMode;
+    static boolean enter(@DevMode boolean devMode, @Fallback boolean fallback) {
+        return devMode || fallback;
     }
 }
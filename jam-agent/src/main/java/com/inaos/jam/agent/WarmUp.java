@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.inaos.jam.api.Acceleration;
+import com.inaos.jam.observation.BlockFormat;
+import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.Payloads;
+import com.inaos.jam.observation.SerializedValue;
+import com.inaos.jam.observation.kryo.Deltas;
+import com.inaos.jam.observation.kryo.KryoManifest;
+import com.inaos.jam.observation.kryo.KryoSerializer;
+import com.inaos.jam.observation.kryo.ObservationSerializer;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the arguments of a sample file through the accelerated methods such that the advice, the accelerated
+ * methods and the native libraries are compiled and initialized before the application receives traffic. The
+ * replay is repeated until the time budget is exhausted. An observation is replayed through an acceleration if its
+ * name is one that the acceleration's advice observes and if its argument types match the accelerated method. At most
+ * {@code MAX_SAMPLES} observations are retained per acceleration, and the sample file is only read within the budget. Arguments that were
+ * streamed to a spill file are read from the spill file next to the sample file on each replay.
+ * <p>
+ * An acceleration is only replayed once the agent applied it to a type that the application loads, and it is replayed
+ * through the type as it was defined by that class loader. The warm-up never loads accelerated types by itself such
+ * that their static initialization is not triggered before the application uses them.
+ */
+class WarmUp implements Runnable {
+
+    private static final int MAX_SAMPLES = 64;
+
+    private final File sample;
+
+    private final long budget;
+
+    private final List<MethodAccelleration> accellerations;
+
+    private final boolean debugMode;
+
+    private final BlockingQueue<Target> targets = new LinkedBlockingQueue<Target>();
+
+    WarmUp(File sample, long budget, List<MethodAccelleration> accellerations, boolean debugMode) {
+        this.sample = sample;
+        this.budget = budget;
+        this.accellerations = accellerations;
+        this.debugMode = debugMode;
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "jam-warm-up");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Notifies the warm-up that an acceleration was applied to its type as it is loaded by the given class loader.
+     */
+    void applied(MethodAccelleration accelleration, ClassLoader classLoader) {
+        targets.add(new Target(accelleration, classLoader));
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget);
+        KryoManifest manifest;
+        List<List<SerializedValue>> samples;
+        try {
+            manifest = KryoManifest.forSample(sample);
+            samples = read(manifest, deadline);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        KryoSerializer serializer = manifest == null ? new KryoSerializer() : new KryoSerializer(manifest);
+        File folder = sample.getAbsoluteFile().getParentFile();
+        Set<Target> resolved = new HashSet<Target>();
+        List<Replay> replays = new ArrayList<Replay>();
+        long calls = 0, failures = 0;
+        try {
+            while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                Target target = replays.isEmpty()
+                        ? targets.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                        : targets.poll();
+                if (target != null) {
+                    if (resolved.add(target)) {
+                        resolve(target, samples.get(accellerations.indexOf(target.accelleration)), replays);
+                    }
+                    continue;
+                }
+                for (Replay replay : replays) {
+                    if (System.nanoTime() >= deadline) {
+                        break;
+                    }
+                    try {
+                        replay.method.invoke(replay.receiver, serializer.resolveArguments(replay.arguments, folder));
+                    } catch (Exception e) {
+                        if (failures++ == 0) {
+                            System.err.println("Cannot warm up " + replay.method + ": " + e);
+                        }
+                    }
+                    calls++;
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // The warm-up is abandoned.
+        }
+        if (failures > 0) {
+            System.err.println("Warm-up replayed " + calls + " calls of " + replays.size() + " samples with " + failures + " failures");
+        } else if (debugMode) {
+            System.out.println("Warm-up replayed " + calls + " calls of " + replays.size() + " samples with " + failures + " failures");
+        }
+    }
+
+    private List<List<SerializedValue>> read(KryoManifest manifest, long deadline) throws IOException {
+        Kryo kryo = manifest == null ? new Kryo() : manifest.newKryo();
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        kryo.addDefaultSerializer(Observation.class, new ObservationSerializer());
+        List<List<SerializedValue>> samples = new ArrayList<List<SerializedValue>>();
+        List<Set<String>> observationNames = new ArrayList<Set<String>>();
+        for (MethodAccelleration accelleration : accellerations) {
+            samples.add(new ArrayList<SerializedValue>());
+            observationNames.add(accelleration.observationNames());
+        }
+        int saturated = 0;
+        Payloads payloads = new Payloads();
+        Input in = new Input(BlockFormat.open(sample, null));
+        try {
+            while (saturated < samples.size() && !in.eof() && System.nanoTime() < deadline) {
+                Observation observation = Deltas.resolve(payloads.resolve(kryo.readObject(in, Observation.class)));
+                SerializedValue arguments = observation.value(Acceleration.ARGUMENTS);
+                if (arguments == null) {
+                    continue;
+                }
+                for (int index = 0; index < samples.size(); index++) {
+                    // Advice with computed observation names is matched by its argument types only.
+                    if (samples.get(index).size() == MAX_SAMPLES
+                            || !observationNames.get(index).isEmpty() && !observationNames.get(index).contains(observation.getName())
+                            || !accellerations.get(index).parameterNames().equals(Arrays.asList(arguments.getTypes()))) {
+                        continue;
+                    }
+                    samples.get(index).add(arguments);
+                    if (samples.get(index).size() == MAX_SAMPLES) {
+                        saturated++;
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return samples;
+    }
+
+    private void resolve(Target target, List<SerializedValue> samples, List<Replay> replays) {
+        for (SerializedValue arguments : samples) {
+            try {
+                // The type is being defined by the application and is neither loaded nor initialized on its behalf.
+                Class<?> type = Class.forName(target.accelleration.typeName(), false, target.classLoader);
+                Method method = type.getDeclaredMethod(target.accelleration.methodName(), arguments.resolveTypes(target.classLoader));
+                method.setAccessible(true);
+                Object receiver = null;
+                if (!Modifier.isStatic(method.getModifiers())) {
+                    Constructor<?> constructor = type.getDeclaredConstructor();
+                    constructor.setAccessible(true);
+                    receiver = constructor.newInstance();
+                }
+                replays.add(new Replay(method, receiver, arguments));
+            } catch (Throwable t) {
+                System.err.println("Cannot warm up " + target.accelleration + " in " + target.classLoader + ": " + t);
+                return;
+            }
+        }
+        if (debugMode) {
+            System.out.println("Warm-up resolved " + samples.size() + " samples of " + target.accelleration + " in " + target.classLoader);
+        }
+    }
+
+    private static class Target {
+
+        final MethodAccelleration accelleration;
+
+        final ClassLoader classLoader;
+
+        Target(MethodAccelleration accelleration, ClassLoader classLoader) {
+            this.accelleration = accelleration;
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            } else if (!(object instanceof Target)) {
+                return false;
+            }
+            Target target = (Target) object;
+            return accelleration == target.accelleration && classLoader == target.classLoader;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(accelleration) + System.identityHashCode(classLoader);
+        }
+    }
+
+    private static class Replay {
+
+        final Method method;
+
+        final Object receiver;
+
+        final SerializedValue arguments;
+
+        Replay(Method method, Object receiver, SerializedValue arguments) {
+            this.method = method;
+            this.receiver = receiver;
+            this.arguments = arguments;
+        }
+    }
+}
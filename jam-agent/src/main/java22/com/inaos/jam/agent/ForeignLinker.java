@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.Buffer;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Binds foreign dispatcher methods to native symbols by downcall handles. Every foreign dispatcher method is
+ * implemented by an {@code invokedynamic} instruction that is linked by {@link #bootstrap} to a constant call site.
+ */
+public class ForeignLinker {
+
+    private static final Linker LINKER = Linker.nativeLinker();
+
+    private static final ConcurrentMap<String, SymbolLookup> LIBRARIES = new ConcurrentHashMap<String, SymbolLookup>();
+
+    private ForeignLinker() {
+    }
+
+    static boolean isSupported() {
+        return true;
+    }
+
+    public static CallSite bootstrap(MethodHandles.Lookup lookup,
+                                     String name,
+                                     MethodType type,
+                                     String library,
+                                     String symbol) throws ReflectiveOperationException {
+        SymbolLookup symbols = LIBRARIES.get(library);
+        if (symbols == null) {
+            symbols = SymbolLookup.libraryLookup(Paths.get(library), Arena.global());
+            SymbolLookup previous = LIBRARIES.putIfAbsent(library, symbols);
+            if (previous != null) {
+                symbols = previous;
+            }
+        }
+        MemorySegment address = symbols.find(symbol).orElse(null);
+        if (address == null) {
+            throw new UnsatisfiedLinkError("Cannot find symbol " + symbol + " in " + library + " for " + name);
+        }
+        MemoryLayout[] layouts = new MemoryLayout[type.parameterCount()];
+        boolean heapAccess = false;
+        for (int index = 0; index < layouts.length; index++) {
+            Class<?> parameter = type.parameterType(index);
+            layouts[index] = layout(parameter);
+            heapAccess |= parameter.isArray() || Buffer.class.isAssignableFrom(parameter);
+        }
+        FunctionDescriptor descriptor = type.returnType() == void.class
+                ? FunctionDescriptor.ofVoid(layouts)
+                : FunctionDescriptor.of(layout(type.returnType()), layouts);
+        MethodHandle handle = heapAccess
+                ? LINKER.downcallHandle(address, descriptor, Linker.Option.critical(true))
+                : LINKER.downcallHandle(address, descriptor);
+        for (int index = 0; index < layouts.length; index++) {
+            Class<?> parameter = type.parameterType(index);
+            if (parameter.isArray()) {
+                handle = MethodHandles.filterArguments(handle, index, MethodHandles.publicLookup().findStatic(MemorySegment.class,
+                        "ofArray",
+                        MethodType.methodType(MemorySegment.class, parameter)));
+            } else if (Buffer.class.isAssignableFrom(parameter)) {
+                handle = MethodHandles.filterArguments(handle, index, MethodHandles.publicLookup().findStatic(MemorySegment.class,
+                        "ofBuffer",
+                        MethodType.methodType(MemorySegment.class, Buffer.class)).asType(MethodType.methodType(MemorySegment.class, parameter)));
+            }
+        }
+        return new ConstantCallSite(handle.asType(type));
+    }
+
+    private static MemoryLayout layout(Class<?> type) {
+        if (type == boolean.class) return ValueLayout.JAVA_BOOLEAN;
+        if (type == byte.class) return ValueLayout.JAVA_BYTE;
+        if (type == short.class) return ValueLayout.JAVA_SHORT;
+        if (type == char.class) return ValueLayout.JAVA_CHAR;
+        if (type == int.class) return ValueLayout.JAVA_INT;
+        if (type == long.class) return ValueLayout.JAVA_LONG;
+        if (type == float.class) return ValueLayout.JAVA_FLOAT;
+        if (type == double.class) return ValueLayout.JAVA_DOUBLE;
+        if (type == MemorySegment.class || Buffer.class.isAssignableFrom(type)) return ValueLayout.ADDRESS;
+        if (type.isArray() && type.getComponentType().isPrimitive() && type != boolean[].class) return ValueLayout.ADDRESS;
+        throw new IllegalArgumentException("Cannot pass " + type + " to a foreign function");
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.inaos.jam.agent;
+
+import com.inaos.jam.api.Acceleration;
+import com.inaos.jam.api.DevMode;
+import com.inaos.jam.boot.JamAgentDispatcher;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.inaos.jam.agent.ProductionAdviceTest.binaryRepresentation;
+import static com.inaos.jam.agent.ProductionAdviceTest.instructions;
+import static com.inaos.jam.agent.ProductionAdviceTest.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ObservationIdAdviceTest {
+
+    @Test
+    public void testConstantNamesAreObservedByTheirId() throws Exception {
+        Map<String, Integer> observationIds = new HashMap<String, Integer>();
+        observationIds.put("first", 3);
+        observationIds.put("second", 300);
+        byte[] advice = ObservationIdAdvice.make(binaryRepresentation(NamingAdvice.class), observationIds);
+        verify(advice);
+        String instructions = instructions(advice, "enter");
+        assertFalse(instructions, instructions.contains("observe (Ljava/lang/String;)"));
+        assertTrue(instructions, instructions.contains("ICONST_3\n    LDC \"first\"\n    INVOKESTATIC com/inaos/jam/boot/JamAgentDispatcher.observe (ILjava/lang/String;)"));
+        assertTrue(instructions, instructions.contains("SIPUSH 300\n    LDC \"second\"\n    INVOKESTATIC com/inaos/jam/boot/JamAgentDispatcher.observe (ILjava/lang/String;)"));
+    }
+
+    @Test
+    public void testUnregisteredAndComputedNamesAreRetained() throws Exception {
+        byte[] original = binaryRepresentation(NamingAdvice.class);
+        Map<String, Integer> observationIds = new HashMap<String, Integer>();
+        observationIds.put("first", 3);
+        byte[] advice = ObservationIdAdvice.make(original, observationIds);
+        verify(advice);
+        String instructions = instructions(advice, "enter");
+        assertTrue(instructions, instructions.contains("LDC \"second\"\n    INVOKESTATIC com/inaos/jam/boot/JamAgentDispatcher.observe (Ljava/lang/String;)"));
+        assertEquals(instructions(original, "computed"), instructions(advice, "computed"));
+    }
+
+    @Test
+    public void testConstantThatIsNotObservedIsRetained() throws Exception {
+        Map<String, Integer> observationIds = new HashMap<String, Integer>();
+        observationIds.put(Acceleration.ARGUMENTS, 3);
+        byte[] original = binaryRepresentation(NamingAdvice.class), advice = ObservationIdAdvice.make(original, observationIds);
+        verify(advice);
+        assertEquals(instructions(original, "enter"), instructions(advice, "enter"));
+    }
+
+    static class NamingAdvice {
+
+        static void enter(@DevMode boolean devMode, double[] x) {
+            if (devMode) {
+                Object observation = JamAgentDispatcher.observe("first");
+                JamAgentDispatcher.attach(observation, Acceleration.ARGUMENTS, double[].class, x);
+                JamAgentDispatcher.commit(observation);
+            } else {
+                JamAgentDispatcher.commit(JamAgentDispatcher.observe("second"));
+            }
+        }
+
+        static void computed(double[] x) {
+            JamAgentDispatcher.commit(JamAgentDispatcher.observe("computed" + x.length));
+        }
+    }
+}
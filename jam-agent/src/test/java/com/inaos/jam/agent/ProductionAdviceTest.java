@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.agent;
+
+import com.inaos.jam.api.Acceleration;
+import com.inaos.jam.api.DevMode;
+import com.inaos.jam.boot.JamAgentDispatcher;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.util.CheckClassAdapter;
+import org.objectweb.asm.util.Textifier;
+import org.objectweb.asm.util.TraceMethodVisitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProductionAdviceTest {
+
+    @Test
+    public void testDevModeBlockIsRemoved() throws Exception {
+        byte[] advice = ProductionAdvice.make(binaryRepresentation(GuardedAdvice.class), false);
+        verify(advice);
+        String instructions = instructions(advice, "enter");
+        assertFalse(instructions, instructions.contains("JamAgentDispatcher"));
+        assertFalse(instructions, instructions.contains("IFEQ"));
+        assertTrue(instructions, instructions.contains("DASTORE"));
+    }
+
+    @Test
+    public void testDevModeBlockIsRemovedIfObserved() throws Exception {
+        byte[] advice = ProductionAdvice.make(binaryRepresentation(GuardedAdvice.class), true);
+        verify(advice);
+        assertFalse(instructions(advice, "enter").contains("JamAgentDispatcher"));
+    }
+
+    @Test
+    public void testNegatedGuardIsDropped() throws Exception {
+        byte[] advice = ProductionAdvice.make(binaryRepresentation(NegatedAdvice.class), false);
+        verify(advice);
+        String instructions = instructions(advice, "enter");
+        assertFalse(instructions, instructions.contains("IFNE"));
+        assertFalse(instructions, instructions.contains("JamAgentDispatcher"));
+        assertTrue(instructions, instructions.contains("DASTORE"));
+    }
+
+    @Test
+    public void testElseBranchIsRetained() throws Exception {
+        byte[] advice = ProductionAdvice.make(binaryRepresentation(BranchingAdvice.class), false);
+        verify(advice);
+        String instructions = instructions(advice, "enter");
+        assertFalse(instructions, instructions.contains("JamAgentDispatcher"));
+        assertFalse(instructions, instructions.contains("IFEQ"));
+        assertTrue(instructions, instructions.contains("DASTORE"));
+    }
+
+    @Test
+    public void testDispatcherCallsArePoppedIfNotObserved() throws Exception {
+        byte[] advice = ProductionAdvice.make(binaryRepresentation(UnguardedAdvice.class), false);
+        verify(advice);
+        String instructions = instructions(advice, "enter");
+        assertTrue(instructions, instructions.contains("JamAgentDispatcher.observe"));
+        assertFalse(instructions, instructions.contains("JamAgentDispatcher.attach"));
+        assertFalse(instructions, instructions.contains("JamAgentDispatcher.commit"));
+    }
+
+    @Test
+    public void testDispatcherCallsAreRetainedIfObserved() throws Exception {
+        assertUnchanged(UnguardedAdvice.class);
+    }
+
+    @Test
+    public void testBlockWithHandlerIsRetained() throws Exception {
+        assertUnchanged(HandlingAdvice.class);
+    }
+
+    @Test
+    public void testBackwardJumpIsRetained() throws Exception {
+        assertTrue(instructions(binaryRepresentation(LoopingAdvice.class), "enter").contains("IFEQ"));
+        assertUnchanged(LoopingAdvice.class);
+    }
+
+    @Test
+    public void testAssignedParameterIsRetained() throws Exception {
+        assertUnchanged(AssigningAdvice.class);
+    }
+
+    private static void assertUnchanged(Class<?> type) throws Exception {
+        byte[] original = binaryRepresentation(type), advice = ProductionAdvice.make(original, true);
+        verify(advice);
+        assertEquals(instructions(original, "enter"), instructions(advice, "enter"));
+    }
+
+    static byte[] binaryRepresentation(Class<?> type) throws IOException {
+        InputStream in = type.getClassLoader().getResourceAsStream(type.getName().replace('.', '/') + ".class");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    static void verify(byte[] binaryRepresentation) throws Exception {
+        StringWriter errors = new StringWriter();
+        CheckClassAdapter.verify(new ClassReader(binaryRepresentation), ProductionAdviceTest.class.getClassLoader(), false, new PrintWriter(errors));
+        assertEquals("", errors.toString());
+        // Java 7 class files are always verified by their stack map frames, without falling back to inference.
+        byte[] java7 = binaryRepresentation.clone();
+        java7[6] = 0;
+        java7[7] = 51;
+        final String name = new ClassReader(java7).getClassName().replace('/', '.');
+        final byte[] definition = java7;
+        ClassLoader classLoader = new ClassLoader(ProductionAdviceTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String typeName, boolean resolve) throws ClassNotFoundException {
+                if (typeName.equals(name)) {
+                    return defineClass(name, definition, 0, definition.length);
+                }
+                return super.loadClass(typeName, resolve);
+            }
+        };
+        Class.forName(name, true, classLoader).getDeclaredMethods();
+    }
+
+    static String instructions(byte[] binaryRepresentation, String name) {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(binaryRepresentation).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        for (Object method : classNode.methods) {
+            MethodNode methodNode = (MethodNode) method;
+            if (methodNode.name.equals(name)) {
+                Textifier textifier = new Textifier();
+                methodNode.accept(new TraceMethodVisitor(textifier));
+                StringWriter instructions = new StringWriter();
+                textifier.print(new PrintWriter(instructions));
+                return instructions.toString();
+            }
+        }
+        throw new AssertionError("No method " + name);
+    }
+
+    static class GuardedAdvice {
+
+        static void enter(@DevMode boolean devMode, double[] x) {
+            if (devMode) {
+                Object observation = JamAgentDispatcher.observe("guarded");
+                JamAgentDispatcher.attach(observation, Acceleration.ARGUMENTS, new Class<?>[]{double[].class}, new Object[]{x});
+                JamAgentDispatcher.commit(observation);
+            }
+            x[0] = 1;
+        }
+    }
+
+    static class NegatedAdvice {
+
+        static void enter(@DevMode boolean devMode, double[] x) {
+            if (!devMode) {
+                x[0] = 1;
+            }
+        }
+    }
+
+    static class BranchingAdvice {
+
+        static void enter(@DevMode boolean devMode, double[] x) {
+            if (devMode) {
+                Object observation = JamAgentDispatcher.observe("branching");
+                JamAgentDispatcher.attach(observation, Acceleration.ARGUMENTS, double[].class, x);
+                JamAgentDispatcher.commit(observation);
+            } else {
+                x[0] = 1;
+            }
+        }
+    }
+
+    static class UnguardedAdvice {
+
+        static Object enter(@DevMode boolean devMode, double[] x) {
+            Object observation = JamAgentDispatcher.observe("unguarded");
+            JamAgentDispatcher.attach(observation, Acceleration.ARGUMENTS, double[].class, x);
+            JamAgentDispatcher.commit(observation);
+            return observation;
+        }
+    }
+
+    static class HandlingAdvice {
+
+        static void enter(@DevMode boolean devMode, double[] x) {
+            if (devMode) {
+                try {
+                    JamAgentDispatcher.commit(JamAgentDispatcher.observe("handling"));
+                } catch (RuntimeException e) {
+                    x[0] = 1;
+                }
+            }
+        }
+    }
+
+    static class LoopingAdvice {
+
+        static void enter(@DevMode boolean devMode, double[] x) {
+            do {
+                x[0]++;
+                if (x[0] > 10) {
+                    break;
+                }
+            } while (!devMode);
+        }
+    }
+
+    static class AssigningAdvice {
+
+        static void enter(@DevMode boolean devMode, double[] x) {
+            devMode = x.length > 1;
+            if (devMode) {
+                JamAgentDispatcher.commit(JamAgentDispatcher.observe("assigning"));
+            }
+            x[0] = 1;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.inaos.jam.agent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class ForeignLinkerTest {
+
+    private String library;
+
+    // The C library is resolved as a dependency of the JDK's own native library.
+    @Before
+    public void setUp() {
+        File file = new File(System.getProperty("java.home"), "lib/" + System.mapLibraryName("java"));
+        assumeTrue(file.isFile());
+        library = file.getAbsolutePath();
+    }
+
+    @Test
+    public void testIsSupported() {
+        assertTrue(ForeignLinker.isSupported());
+    }
+
+    @Test
+    public void testPrimitiveDowncall() throws Throwable {
+        MethodHandle abs = bind("abs", MethodType.methodType(int.class, int.class));
+        assertEquals(42, (int) abs.invokeExact(-42));
+    }
+
+    @Test
+    public void testHeapArrayDowncall() throws Throwable {
+        MethodHandle strlen = bind("strlen", MethodType.methodType(long.class, byte[].class));
+        assertEquals(3L, (long) strlen.invokeExact("foo\0".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testDirectBufferDowncall() throws Throwable {
+        MethodHandle strlen = bind("strlen", MethodType.methodType(long.class, ByteBuffer.class));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8).put("barbaz\0".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(6L, (long) strlen.invokeExact(buffer));
+    }
+
+    @Test(expected = UnsatisfiedLinkError.class)
+    public void testMissingSymbol() throws Throwable {
+        bind("jam_missing_symbol", MethodType.methodType(void.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedParameter() throws Throwable {
+        bind("strlen", MethodType.methodType(long.class, boolean[].class));
+    }
+
+    private MethodHandle bind(String symbol, MethodType type) throws Throwable {
+        return ForeignLinker.bootstrap(MethodHandles.lookup(), symbol, type, library, symbol).dynamicInvoker();
+    }
+}
@@ -41,6 +41,71 @@ public @interface Acceleration {
 
     String[] expectedNames() default {};
 
+    /**
+     * If {@code true}, the advice is not inlined into the accelerated method, only a call to a public copy of the
+     * advice class is woven such that the accelerated method stays small enough to be inlined by the JIT compiler.
+     * Delegating advice cannot use {@code Advice.Local} values or assign to arguments or return values.
+     */
+    boolean delegate() default false;
+
+    /**
+     * Declares at most one batch configuration. A batched acceleration receives the {@link BatchExecutor} of its
+     * kernel by an advice parameter that is annotated with {@link Batched}.
+     */
+    Batch[] batch() default {};
+
+    /**
+     * Registers classes of observed values with stable ids such that observations do not carry their class names.
+     * The registrations of all accelerations are added to the agent's registration manifest.
+     */
+    Registration[] registrations() default {};
+
+    /**
+     * Declares at most one capture policy for primitive arrays that are too large to be observed in full. If no policy
+     * is declared, the agent's default policy applies.
+     */
+    Capture[] capture() default {};
+
+    @Target(value = {})
+    @interface Batch {
+
+        Class<? extends BatchKernel<?>> kernel();
+
+        int size() default 64;
+
+        /**
+         * The maximum time in microseconds that the first call of a batch waits for more calls.
+         */
+        long linger() default 50;
+    }
+
+    @Target(value = {})
+    @interface Capture {
+
+        /**
+         * The size in bytes above which a primitive array is not observed in full. A negative threshold observes
+         * all arrays in full.
+         */
+        long threshold();
+
+        /**
+         * If {@code true}, an array above the threshold is streamed in chunks to a spill file next to the sample
+         * file, otherwise only its summary of length, checksum, range, histogram and a strided subsample is observed.
+         */
+        boolean stream() default false;
+    }
+
+    @Target(value = {})
+    @interface Registration {
+
+        Class<?> type();
+
+        /**
+         * If {@code true}, shared and cyclic references between instances of the registered class are preserved.
+         */
+        boolean references() default false;
+    }
+
     @Target(value = {})
     @interface Library {
 
@@ -48,12 +113,29 @@ public @interface Acceleration {
 
         String binary();
 
+        /**
+         * If {@code true}, the dispatcher's {@code native} methods are bound to plain C symbols of the binary by
+         * {@code java.lang.foreign} downcall handles instead of being linked by JNI. Primitive arrays and buffers
+         * are passed as memory segments without copying. Requires Java 22 or later at runtime.
+         */
+        boolean foreign() default false;
+
         @Retention(RetentionPolicy.RUNTIME)
         @Target(ElementType.METHOD)
         @interface Init {
 
         }
 
+        /**
+         * Names the C symbol of a foreign bound dispatcher method if it differs from the method name.
+         */
+        @Retention(RetentionPolicy.RUNTIME)
+        @Target(ElementType.METHOD)
+        @interface Symbol {
+
+            String value();
+        }
+
         @Retention(RetentionPolicy.RUNTIME)
         @Target(ElementType.METHOD)
         @interface Destroy {
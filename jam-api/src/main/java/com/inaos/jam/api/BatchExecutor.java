@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.api;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces calls of many threads into batches that are executed by a single invocation of a {@link BatchKernel}.
+ * The first call of a batch waits for the linger time or until the batch is full, whichever comes first, and then
+ * executes the batch on its own thread. Every caller blocks only until its own batch completed. Shared executors are
+ * kept per kernel class, batch size and linger time, such that accelerations with a different configuration of the
+ * same kernel do not share batches.
+ *
+ * @param <T> The type of the call objects.
+ */
+public class BatchExecutor<T> {
+
+    private static final ConcurrentMap<Key, BatchExecutor<?>> EXECUTORS = new ConcurrentHashMap<Key, BatchExecutor<?>>();
+
+    private final BatchKernel<T> kernel;
+
+    private final int size;
+
+    private final long lingerNanos;
+
+    private Batch<T> current;
+
+    public BatchExecutor(BatchKernel<T> kernel, int size, long lingerMicros) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + size);
+        }
+        this.kernel = kernel;
+        this.size = size;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> BatchExecutor<T> of(Class<? extends BatchKernel<T>> kernel, int size, long lingerMicros) {
+        Key key = new Key(kernel, size, lingerMicros);
+        BatchExecutor<?> executor = EXECUTORS.get(key);
+        if (executor == null) {
+            try {
+                Constructor<? extends BatchKernel<T>> constructor = kernel.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                executor = new BatchExecutor<T>(constructor.newInstance(), size, lingerMicros);
+            } catch (Exception e) {
+                throw new IllegalStateException("Cannot instantiate batch kernel " + kernel.getName(), e);
+            }
+            BatchExecutor<?> previous = EXECUTORS.putIfAbsent(key, executor);
+            if (previous != null) {
+                executor = previous;
+            }
+        }
+        return (BatchExecutor<T>) executor;
+    }
+
+    public void invoke(T call) {
+        Batch<T> batch;
+        boolean leader = false, full = false;
+        synchronized (this) {
+            batch = current;
+            if (batch == null) {
+                batch = current = new Batch<T>(size);
+                leader = true;
+            }
+            batch.calls.add(call);
+            if (batch.calls.size() == size) {
+                current = null;
+                full = true;
+            }
+        }
+        if (full) {
+            batch.execute(kernel);
+        } else if (leader) {
+            if (!batch.await(lingerNanos)) {
+                boolean expired;
+                synchronized (this) {
+                    expired = current == batch;
+                    if (expired) {
+                        current = null;
+                    }
+                }
+                if (expired) {
+                    batch.execute(kernel);
+                } else {
+                    batch.await(Long.MAX_VALUE);
+                }
+            }
+        } else {
+            batch.await(Long.MAX_VALUE);
+        }
+        if (batch.error instanceof RuntimeException) {
+            throw (RuntimeException) batch.error;
+        } else if (batch.error instanceof Error) {
+            throw (Error) batch.error;
+        } else if (batch.error != null) {
+            throw new IllegalStateException(batch.error);
+        }
+    }
+
+    private static class Key {
+
+        private final Class<?> kernel;
+
+        private final int size;
+
+        private final long lingerMicros;
+
+        Key(Class<?> kernel, int size, long lingerMicros) {
+            this.kernel = kernel;
+            this.size = size;
+            this.lingerMicros = lingerMicros;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            } else if (!(object instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) object;
+            return kernel == key.kernel && size == key.size && lingerMicros == key.lingerMicros;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * kernel.hashCode() + size) + (int) (lingerMicros ^ lingerMicros >>> 32);
+        }
+    }
+
+    private static class Batch<T> {
+
+        final List<T> calls;
+
+        private boolean completed;
+
+        private Throwable error;
+
+        Batch(int size) {
+            calls = new ArrayList<T>(size);
+        }
+
+        void execute(BatchKernel<T> kernel) {
+            Throwable error = null;
+            try {
+                kernel.execute(calls);
+            } catch (Throwable t) {
+                error = t;
+            }
+            synchronized (this) {
+                this.error = error;
+                completed = true;
+                notifyAll();
+            }
+        }
+
+        synchronized boolean await(long nanos) {
+            long deadline = System.nanoTime() + nanos;
+            boolean interrupted = false;
+            while (!completed) {
+                long remaining = nanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return completed;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.api;
+
+import java.util.List;
+
+/**
+ * Executes a batch of calls that were coalesced by a {@link BatchExecutor}, typically by packing the arguments of
+ * all calls into arrays, invoking a single native method and unpacking the results back into the calls.
+ *
+ * @param <T> The type of the call objects.
+ */
+public interface BatchKernel<T> {
+
+    void execute(List<T> calls);
+}
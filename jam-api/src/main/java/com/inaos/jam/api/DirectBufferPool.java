@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.api;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of reusable, native ordered direct buffers that allows advice to stage arguments off-heap such that native
+ * code can access them by their address rather than by copying arrays across the JNI boundary. Buffers are pooled
+ * in power-of-two size classes, a buffer must be released after the native call completed to be reused. The pool
+ * does not track acquired buffers such that acquiring and releasing does not contend, a buffer that is never released
+ * is reclaimed by the garbage collector. A buffer must therefore only be released once and only to the pool that it
+ * was acquired from, releasing a buffer that does not match a size class of a pool is rejected.
+ */
+public class DirectBufferPool {
+
+    private static final int MIN_SHIFT = 6, MAX_SHIFT = 30;
+
+    private static final DirectBufferPool SHARED = new DirectBufferPool(64);
+
+    private final Queue<ByteBuffer>[] buffers;
+
+    private final AtomicInteger[] sizes;
+
+    private final int maxBuffersPerSize;
+
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool(int maxBuffersPerSize) {
+        this.maxBuffersPerSize = maxBuffersPerSize;
+        buffers = new Queue[MAX_SHIFT - MIN_SHIFT + 1];
+        sizes = new AtomicInteger[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int index = 0; index < buffers.length; index++) {
+            buffers[index] = new ConcurrentLinkedQueue<ByteBuffer>();
+            sizes[index] = new AtomicInteger();
+        }
+    }
+
+    public static DirectBufferPool shared() {
+        return SHARED;
+    }
+
+    public ByteBuffer acquire(int bytes) {
+        if (bytes < 0 || bytes > 1 << MAX_SHIFT) {
+            throw new IllegalArgumentException("Cannot pool buffer of " + bytes + " bytes");
+        }
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1));
+        ByteBuffer buffer = buffers[shift - MIN_SHIFT].poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << shift).order(ByteOrder.nativeOrder());
+        } else {
+            sizes[shift - MIN_SHIFT].decrementAndGet();
+            buffer.clear();
+        }
+        buffer.limit(bytes);
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1 || capacity < 1 << MIN_SHIFT || capacity > 1 << MAX_SHIFT) {
+            throw new IllegalArgumentException("Buffer was not acquired from a pool: " + buffer);
+        }
+        int index = Integer.numberOfTrailingZeros(buffer.capacity()) - MIN_SHIFT;
+        if (sizes[index].incrementAndGet() > maxBuffersPerSize) {
+            sizes[index].decrementAndGet();
+        } else {
+            buffers[index].offer(buffer);
+        }
+    }
+
+    public ByteBuffer stage(double[] values) {
+        ByteBuffer buffer = acquire(values.length * 8);
+        buffer.asDoubleBuffer().put(values);
+        return buffer;
+    }
+
+    public ByteBuffer stage(float[] values) {
+        ByteBuffer buffer = acquire(values.length * 4);
+        buffer.asFloatBuffer().put(values);
+        return buffer;
+    }
+
+    public ByteBuffer stage(long[] values) {
+        ByteBuffer buffer = acquire(values.length * 8);
+        buffer.asLongBuffer().put(values);
+        return buffer;
+    }
+
+    public ByteBuffer stage(int[] values) {
+        ByteBuffer buffer = acquire(values.length * 4);
+        buffer.asIntBuffer().put(values);
+        return buffer;
+    }
+
+    public void unstage(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().get(values);
+        release(buffer);
+    }
+
+    public void unstage(ByteBuffer buffer, float[] values) {
+        buffer.asFloatBuffer().get(values);
+        release(buffer);
+    }
+
+    public void unstage(ByteBuffer buffer, long[] values) {
+        buffer.asLongBuffer().get(values);
+        release(buffer);
+    }
+
+    public void unstage(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().get(values);
+        release(buffer);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.api;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds the dense observation id of the acceleration to an {@code int} advice parameter. Passing the id to
+ * {@code JamAgentDispatcher.observe(int, String)} avoids resolving the observation name on every sampled call.
+ * All observations that are recorded with the same id share their sampling budget. Calls of
+ * {@code JamAgentDispatcher.observe(String)} with a constant name do not need this id as the agent rewrites them to
+ * pass an id that is registered for each name.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface ObservationId {
+
+}
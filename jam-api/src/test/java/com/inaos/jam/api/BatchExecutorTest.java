@@ -0,0 +1,274 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.api;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchExecutorTest {
+
+    private static final long LONG_LINGER = TimeUnit.SECONDS.toMicros(60);
+
+    @Test
+    public void testSingleCallIsExecutedAfterLinger() {
+        RecordingKernel kernel = new RecordingKernel();
+        BatchExecutor<Integer> executor = new BatchExecutor<Integer>(kernel, 8, 1000);
+        executor.invoke(1);
+        assertEquals(Collections.singletonList(Collections.singletonList(1)), kernel.batches);
+    }
+
+    @Test
+    public void testFullBatchIsExecutedWithoutLinger() throws Exception {
+        RecordingKernel kernel = new RecordingKernel();
+        BatchExecutor<Integer> executor = new BatchExecutor<Integer>(kernel, 4, LONG_LINGER);
+        List<Future<?>> futures = invokeConcurrently(executor, 4);
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(1, kernel.batches.size());
+        assertEquals(4, kernel.batches.get(0).size());
+    }
+
+    @Test
+    public void testCallsBeyondBatchSizeStartNewBatch() throws Exception {
+        RecordingKernel kernel = new RecordingKernel();
+        BatchExecutor<Integer> executor = new BatchExecutor<Integer>(kernel, 2, LONG_LINGER);
+        List<Future<?>> futures = invokeConcurrently(executor, 6);
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(3, kernel.batches.size());
+        for (List<Integer> batch : kernel.batches) {
+            assertEquals(2, batch.size());
+        }
+    }
+
+    @Test
+    public void testLeaderExecutesExpiredBatchOfFollowers() throws Exception {
+        RecordingKernel kernel = new RecordingKernel();
+        BatchExecutor<Integer> executor = new BatchExecutor<Integer>(kernel, 100, TimeUnit.MILLISECONDS.toMicros(200));
+        List<Future<?>> futures = invokeConcurrently(executor, 10);
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        int calls = 0;
+        for (List<Integer> batch : kernel.batches) {
+            calls += batch.size();
+        }
+        assertEquals(10, calls);
+        assertTrue(kernel.batches.size() < 10);
+    }
+
+    @Test
+    public void testConcurrentCallsAreEachExecutedOnce() throws Exception {
+        RecordingKernel kernel = new RecordingKernel();
+        final BatchExecutor<Integer> executor = new BatchExecutor<Integer>(kernel, 7, 1);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int thread = 0; thread < 8; thread++) {
+                final int offset = thread * 1000;
+                futures.add(threads.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int index = 0; index < 1000; index++) {
+                            executor.invoke(offset + index);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        List<Integer> calls = new ArrayList<Integer>();
+        for (List<Integer> batch : kernel.batches) {
+            assertTrue(batch.size() <= 7);
+            calls.addAll(batch);
+        }
+        Collections.sort(calls);
+        assertEquals(8000, calls.size());
+        for (int index = 0; index < calls.size(); index++) {
+            assertEquals(index, (int) calls.get(index));
+        }
+    }
+
+    @Test
+    public void testErrorIsPropagatedToAllCallers() throws Exception {
+        final IllegalArgumentException exception = new IllegalArgumentException();
+        BatchExecutor<Integer> executor = new BatchExecutor<Integer>(new BatchKernel<Integer>() {
+            @Override
+            public void execute(List<Integer> calls) {
+                throw exception;
+            }
+        }, 3, LONG_LINGER);
+        List<Future<?>> futures = invokeConcurrently(executor, 3);
+        for (Future<?> future : futures) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertSame(exception, e.getCause());
+            }
+        }
+    }
+
+    @Test
+    public void testCheckedErrorIsWrapped() {
+        final Exception exception = new Exception();
+        BatchExecutor<Integer> executor = new BatchExecutor<Integer>(new BatchKernel<Integer>() {
+            @Override
+            public void execute(List<Integer> calls) {
+                BatchExecutorTest.<RuntimeException>sneakyThrow(exception);
+            }
+        }, 1, LONG_LINGER);
+        try {
+            executor.invoke(1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(exception, e.getCause());
+        }
+    }
+
+    @Test
+    public void testInterruptedCallerAwaitsBatchAndKeepsInterrupt() throws Exception {
+        final CountDownLatch executing = new CountDownLatch(1), release = new CountDownLatch(1);
+        final AtomicReference<Thread> executor = new AtomicReference<Thread>();
+        final BatchExecutor<Integer> batchExecutor = new BatchExecutor<Integer>(new BatchKernel<Integer>() {
+            @Override
+            public void execute(List<Integer> calls) {
+                executor.set(Thread.currentThread());
+                executing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }, 2, LONG_LINGER);
+        final Map<Thread, Boolean> interrupted = new ConcurrentHashMap<Thread, Boolean>();
+        Thread[] threads = new Thread[2];
+        for (int index = 0; index < threads.length; index++) {
+            final int call = index;
+            threads[index] = new Thread() {
+                @Override
+                public void run() {
+                    batchExecutor.invoke(call);
+                    interrupted.put(this, isInterrupted());
+                }
+            };
+            threads[index].start();
+        }
+        assertTrue(executing.await(10, TimeUnit.SECONDS));
+        // The thread that completed the batch executes it, the other one waits for its completion despite an interrupt.
+        Thread waiting = executor.get() == threads[0] ? threads[1] : threads[0];
+        waiting.interrupt();
+        Thread.sleep(50);
+        assertTrue(waiting.isAlive());
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(thread.isAlive());
+        }
+        assertTrue(interrupted.get(waiting));
+        assertFalse(interrupted.get(executor.get()));
+    }
+
+    @Test
+    public void testInterruptedLeaderExecutesBatchAfterLinger() {
+        RecordingKernel kernel = new RecordingKernel();
+        BatchExecutor<Integer> executor = new BatchExecutor<Integer>(kernel, 8, TimeUnit.MILLISECONDS.toMicros(50));
+        Thread.currentThread().interrupt();
+        try {
+            executor.invoke(1);
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(Collections.singletonList(Collections.singletonList(1)), kernel.batches);
+    }
+
+    @Test
+    public void testSharedExecutorIsResolvedPerConfiguration() {
+        BatchExecutor<Integer> executor = BatchExecutor.of(RecordingKernel.class, 4, 10);
+        assertSame(executor, BatchExecutor.of(RecordingKernel.class, 4, 10));
+        assertFalse(executor == BatchExecutor.of(RecordingKernel.class, 8, 10));
+        assertFalse(executor == BatchExecutor.of(RecordingKernel.class, 4, 20));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveSizeIsRejected() {
+        new BatchExecutor<Integer>(new RecordingKernel(), 0, 10);
+    }
+
+    private static List<Future<?>> invokeConcurrently(final BatchExecutor<Integer> executor, int count) throws InterruptedException {
+        ExecutorService threads = Executors.newFixedThreadPool(count);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int index = 0; index < count; index++) {
+            final int call = index;
+            futures.add(threads.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    executor.invoke(call);
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        threads.shutdown();
+        return futures;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> void sneakyThrow(Throwable throwable) throws T {
+        throw (T) throwable;
+    }
+
+    static class RecordingKernel implements BatchKernel<Integer> {
+
+        final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<List<Integer>>());
+
+        @Override
+        public void execute(List<Integer> calls) {
+            batches.add(new ArrayList<Integer>(calls));
+        }
+    }
+}
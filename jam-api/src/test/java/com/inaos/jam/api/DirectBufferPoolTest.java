@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.api;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DirectBufferPoolTest {
+
+    @Test
+    public void testSizeClasses() {
+        DirectBufferPool pool = new DirectBufferPool(4);
+        assertEquals(64, pool.acquire(0).capacity());
+        assertEquals(64, pool.acquire(64).capacity());
+        assertEquals(128, pool.acquire(65).capacity());
+        assertEquals(1024, pool.acquire(1000).capacity());
+        ByteBuffer buffer = pool.acquire(100);
+        assertTrue(buffer.isDirect());
+        assertEquals(ByteOrder.nativeOrder(), buffer.order());
+        assertEquals(0, buffer.position());
+        assertEquals(100, buffer.limit());
+    }
+
+    @Test
+    public void testReleasedBufferIsReused() {
+        DirectBufferPool pool = new DirectBufferPool(4);
+        ByteBuffer buffer = pool.acquire(100);
+        buffer.position(10);
+        pool.release(buffer);
+        ByteBuffer reused = pool.acquire(120);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(120, reused.limit());
+        assertNotSame(buffer, pool.acquire(100));
+    }
+
+    @Test
+    public void testSizeClassesAreSeparate() {
+        DirectBufferPool pool = new DirectBufferPool(4);
+        ByteBuffer buffer = pool.acquire(100);
+        pool.release(buffer);
+        assertNotSame(buffer, pool.acquire(200));
+        assertSame(buffer, pool.acquire(100));
+    }
+
+    @Test
+    public void testMaxBuffersPerSize() {
+        DirectBufferPool pool = new DirectBufferPool(2);
+        ByteBuffer[] buffers = {pool.acquire(64), pool.acquire(64), pool.acquire(64)};
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        ByteBuffer first = pool.acquire(64), second = pool.acquire(64), third = pool.acquire(64);
+        assertSame(buffers[0], first);
+        assertSame(buffers[1], second);
+        for (ByteBuffer buffer : buffers) {
+            assertNotSame(buffer, third);
+        }
+    }
+
+    @Test
+    public void testStageAndUnstageDoubles() {
+        DirectBufferPool pool = new DirectBufferPool(4);
+        ByteBuffer buffer = pool.stage(new double[]{1, 2, 3});
+        assertEquals(24, buffer.limit());
+        assertEquals(2d, buffer.getDouble(8), 0d);
+        buffer.putDouble(16, 4);
+        double[] values = new double[3];
+        pool.unstage(buffer, values);
+        assertArrayEquals(new double[]{1, 2, 4}, values, 0d);
+        assertSame(buffer, pool.acquire(24));
+    }
+
+    @Test
+    public void testStageAndUnstageFloats() {
+        DirectBufferPool pool = new DirectBufferPool(4);
+        ByteBuffer buffer = pool.stage(new float[]{1, 2});
+        assertEquals(8, buffer.limit());
+        buffer.putFloat(4, 3);
+        float[] values = new float[2];
+        pool.unstage(buffer, values);
+        assertArrayEquals(new float[]{1, 3}, values, 0f);
+    }
+
+    @Test
+    public void testStageAndUnstageLongs() {
+        DirectBufferPool pool = new DirectBufferPool(4);
+        ByteBuffer buffer = pool.stage(new long[]{1, 2});
+        assertEquals(16, buffer.limit());
+        buffer.putLong(0, 3);
+        long[] values = new long[2];
+        pool.unstage(buffer, values);
+        assertArrayEquals(new long[]{3, 2}, values);
+    }
+
+    @Test
+    public void testStageAndUnstageInts() {
+        DirectBufferPool pool = new DirectBufferPool(4);
+        ByteBuffer buffer = pool.stage(new int[]{1, 2, 3});
+        assertEquals(12, buffer.limit());
+        buffer.putInt(4, 5);
+        int[] values = new int[3];
+        pool.unstage(buffer, values);
+        assertArrayEquals(new int[]{1, 5, 3}, values);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHeapBufferIsRejected() {
+        new DirectBufferPool(4).release(ByteBuffer.allocate(64));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBufferOfOtherSizeIsRejected() {
+        new DirectBufferPool(4).release(ByteBuffer.allocateDirect(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSizeIsRejected() {
+        new DirectBufferPool(4).acquire(-1);
+    }
+}
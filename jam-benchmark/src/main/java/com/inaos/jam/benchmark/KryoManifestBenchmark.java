@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.benchmark;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.api.Acceleration;
+import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.SerializedValue;
+import com.inaos.jam.observation.kryo.ByteBufferSerializer;
+import com.inaos.jam.observation.kryo.KryoManifest;
+import com.inaos.jam.observation.kryo.KryoSerializer;
+import com.inaos.jam.observation.kryo.ObservationSerializer;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding and decoding of an observation of small arguments with and without a registration manifest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KryoManifestBenchmark {
+
+    @Param({"false", "true"})
+    public boolean registered;
+
+    @Param({"4", "256"})
+    public int length;
+
+    private Kryo kryo;
+
+    private KryoSerializer serializer;
+
+    private Observation observation;
+
+    private final Output output = new Output(64 * 1024, -1);
+
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        KryoManifest manifest = new KryoManifest();
+        manifest.add(Sample.class.getName(), false);
+        if (registered) {
+            kryo = manifest.newKryo();
+            serializer = new KryoSerializer(manifest);
+        } else {
+            kryo = new Kryo();
+            kryo.addDefaultSerializer(ByteBuffer.class, new ByteBufferSerializer());
+            serializer = new KryoSerializer();
+        }
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        kryo.addDefaultSerializer(Observation.class, new ObservationSerializer());
+        double[] arguments = new double[length];
+        for (int index = 0; index < length; index++) {
+            arguments[index] = index;
+        }
+        Map<String, SerializedValue> values = new HashMap<String, SerializedValue>();
+        values.put(Acceleration.ARGUMENTS, serializer.make(new Class<?>[]{double[].class, int[].class, Sample.class},
+                new Object[]{arguments, new int[]{1, 2, 3}, new Sample(length, "sample")}));
+        observation = new Observation("benchmark", values);
+        encoded = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        output.clear();
+        kryo.writeObject(output, observation);
+        return output.toBytes();
+    }
+
+    @Benchmark
+    public Object[] decode() {
+        Observation observation = kryo.readObject(new Input(encoded), Observation.class);
+        return serializer.resolveArguments(observation.value(Acceleration.ARGUMENTS));
+    }
+
+    @Benchmark
+    public Object capture() {
+        return serializer.make(new Class<?>[]{double[].class, int[].class, Sample.class},
+                new Object[]{new double[length], new int[]{1, 2, 3}, new Sample(length, "sample")});
+    }
+
+    public static class Sample {
+
+        final int size;
+
+        final String label;
+
+        public Sample(int size, String label) {
+            this.size = size;
+            this.label = label;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.boot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Falls back from the native implementation of an acceleration to its Java implementation once its native code
+ * failed too often. A breaker opens when {@code threshold} native failures are recorded within a window. After the
+ * cool-down, the native code is probed again and the breaker reopens on the first failure within the next window.
+ */
+public class CircuitBreaker implements CircuitBreakerMBean {
+
+    private static volatile CircuitBreaker[] breakers = new CircuitBreaker[0];
+
+    private final String name;
+
+    private final int threshold;
+
+    private final long windowNanos, coolDownNanos;
+
+    private volatile boolean open;
+
+    private volatile long openUntil;
+
+    private long probeUntil, windowStart;
+
+    private int windowFailures;
+
+    private long failureCount, tripCount;
+
+    private CircuitBreaker(String name, int threshold, long windowMillis, long coolDownMillis) {
+        this.name = name;
+        this.threshold = threshold;
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        coolDownNanos = TimeUnit.MILLISECONDS.toNanos(coolDownMillis);
+        probeUntil = windowStart = System.nanoTime();
+    }
+
+    public static synchronized int register(String name, int threshold, long windowMillis, long coolDownMillis) {
+        CircuitBreaker[] breakers = new CircuitBreaker[CircuitBreaker.breakers.length + 1];
+        System.arraycopy(CircuitBreaker.breakers, 0, breakers, 0, CircuitBreaker.breakers.length);
+        breakers[breakers.length - 1] = new CircuitBreaker(name, threshold, windowMillis, coolDownMillis);
+        CircuitBreaker.breakers = breakers;
+        return breakers.length - 1;
+    }
+
+    public static CircuitBreaker of(int index) {
+        return breakers[index];
+    }
+
+    public static boolean isOpen(int index) {
+        CircuitBreaker breaker = breakers[index];
+        return breaker.open && (System.nanoTime() - breaker.openUntil < 0 || breaker.isStillOpen());
+    }
+
+    public static void failure(int index) {
+        breakers[index].onFailure();
+    }
+
+    private synchronized boolean isStillOpen() {
+        long now = System.nanoTime();
+        if (open && now - openUntil >= 0) {
+            open = false;
+            probeUntil = now + windowNanos;
+            windowStart = now;
+            windowFailures = 0;
+        }
+        return open;
+    }
+
+    private synchronized void onFailure() {
+        failureCount++;
+        if (open) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - windowStart > windowNanos) {
+            windowStart = now;
+            windowFailures = 0;
+        }
+        if (++windowFailures >= threshold || now - probeUntil < 0) {
+            openUntil = now + coolDownNanos;
+            open = true;
+            tripCount++;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized String getState() {
+        if (open) {
+            return "OPEN";
+        } else if (System.nanoTime() - probeUntil < 0) {
+            return "PROBING";
+        } else {
+            return "CLOSED";
+        }
+    }
+
+    @Override
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    @Override
+    public synchronized long getTripCount() {
+        return tripCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{name=" + name + ", state=" + getState() + "}";
+    }
+}
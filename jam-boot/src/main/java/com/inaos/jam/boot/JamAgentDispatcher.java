@@ -16,18 +16,64 @@
 
 package com.inaos.jam.boot;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 public abstract class JamAgentDispatcher {
 
     private static final Object NOOP = new Object();
 
+    private static final ConcurrentMap<String, Integer> IDS = new ConcurrentHashMap<String, Integer>();
+
+    private static int nextId;
+
     public static volatile JamAgentDispatcher dispatcher;
 
+    /**
+     * The dispatcher that is notified of native errors, if any, such that raising a native error without it costs a single read.
+     */
+    public static volatile JamAgentDispatcher nativeErrors;
+
+    /**
+     * Registers a dense observation id. The agent registers an id for every acceleration that binds its id at
+     * transformation time.
+     */
+    public static synchronized int register() {
+        return nextId++;
+    }
+
+    /**
+     * Registers the dense observation id of a name or returns the id that is already registered for it. The agent
+     * registers an id for every constant observation name of an advice at transformation time.
+     */
+    public static synchronized int register(String name) {
+        Integer id = IDS.get(name);
+        if (id == null) {
+            id = register();
+            IDS.put(name, id);
+        }
+        return id;
+    }
+
     public static Object observe(String name) {
         JamAgentDispatcher dispatcher = JamAgentDispatcher.dispatcher;
-        Object observation = null;
-        if (dispatcher != null) {
-            observation = dispatcher.doObserve(name);
+        if (dispatcher == null) {
+            return NOOP;
+        }
+        Integer id = IDS.get(name);
+        return observe(dispatcher, id == null ? register(name) : id, name);
+    }
+
+    public static Object observe(int id, String name) {
+        JamAgentDispatcher dispatcher = JamAgentDispatcher.dispatcher;
+        if (dispatcher == null) {
+            return NOOP;
         }
+        return observe(dispatcher, id, name);
+    }
+
+    private static Object observe(JamAgentDispatcher dispatcher, int id, String name) {
+        Object observation = dispatcher.doObserve(id, name);
         return observation == null ? NOOP : observation;
     }
 
@@ -52,7 +98,20 @@ public abstract class JamAgentDispatcher {
         }
     }
 
-    protected abstract Object doObserve(String name);
+    /**
+     * Notifies the dispatcher of an error that was raised by native code.
+     */
+    public static void nativeError(NativeRuntimeException exception) {
+        JamAgentDispatcher nativeErrors = JamAgentDispatcher.nativeErrors;
+        if (nativeErrors != null) {
+            nativeErrors.onNativeError(exception);
+        }
+    }
+
+    protected void onNativeError(NativeRuntimeException exception) {
+    }
+
+    protected abstract Object doObserve(int id, String name);
 
     protected abstract void doAttach(Object observation, String name, Class<?> type, Object argument);
 
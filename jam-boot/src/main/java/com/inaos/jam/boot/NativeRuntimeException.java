@@ -17,27 +17,45 @@
 package com.inaos.jam.boot;
 
 import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class NativeRuntimeException extends RuntimeException {
+
+	private static final int MAX_NORMALIZED_FILES = 1024;
+
+	private static final ConcurrentMap<String, String> NORMALIZED_FILES = new ConcurrentHashMap<String, String>();
+
 	public NativeRuntimeException(String message) {
 		super(message);
+		JamAgentDispatcher.nativeError(this);
 	}
 	
 	public void setNativeError(String functionName, String file, int line) {
-		addStackTraceElement(this, functionName, file, line);
+		// the frame is added right away such that it is also contained when this exception is printed as a cause or serialized
+		addStackTraceElement(this, functionName, normalize(file), line);
 	}
-	
+
 	private static void addStackTraceElement(Throwable t, String functionName, String file, int line) {
 		StackTraceElement[] currentStack = t.getStackTrace();
 		StackTraceElement[] newStack = new StackTraceElement[currentStack.length+1];
 		
 		System.arraycopy(currentStack, 0, newStack, 1, currentStack.length);
 		
-		// we do this because of windows path names (backslashes and other fun)
-		file = Paths.get(file).normalize().toString();
-		
 		newStack[0] = new StackTraceElement("<native>", functionName, file, line);
 		
 		t.setStackTrace(newStack);
 	}
+
+	private static String normalize(String file) {
+		String normalized = NORMALIZED_FILES.get(file);
+		if (normalized == null) {
+			// we do this because of windows path names (backslashes and other fun)
+			normalized = Paths.get(file).normalize().toString();
+			if (NORMALIZED_FILES.size() < MAX_NORMALIZED_FILES) {
+				NORMALIZED_FILES.putIfAbsent(file, normalized);
+			}
+		}
+		return normalized;
+	}
 }
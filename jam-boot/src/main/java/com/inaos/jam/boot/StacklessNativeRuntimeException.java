@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.boot;
+
+/**
+ * A native error that does not capture the Java stack trace when it is created such that native code can cheaply
+ * throw it at high rates, for example to reject invalid input. Its stack trace only consists of the native frame
+ * that is set by {@link #setNativeError(String, String, int)}.
+ */
+public class StacklessNativeRuntimeException extends NativeRuntimeException {
+
+	public StacklessNativeRuntimeException(String message) {
+		super(message);
+	}
+
+	@Override
+	public Throwable fillInStackTrace() {
+		return this;
+	}
+}
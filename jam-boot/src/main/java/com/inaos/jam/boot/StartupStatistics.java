@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.boot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the time that the agent spends during application startup. Class matching and transformation are
+ * recorded for every class that is inspected by the agent and are therefore also accumulated after the agent
+ * is installed.
+ */
+public class StartupStatistics implements StartupStatisticsMBean {
+
+    public static final StartupStatistics INSTANCE = new StartupStatistics();
+
+    private static final ThreadLocal<long[]> NATIVE_LOAD = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final AtomicLong bootJarExtraction = new AtomicLong(),
+            discovery = new AtomicLong(),
+            matching = new AtomicLong(),
+            transformation = new AtomicLong(),
+            nativeExtraction = new AtomicLong(),
+            nativeLoad = new AtomicLong(),
+            installation = new AtomicLong(),
+            classesInspected = new AtomicLong(),
+            classesTransformed = new AtomicLong(),
+            nativeLibrariesLoaded = new AtomicLong();
+
+    private StartupStatistics() {
+    }
+
+    /**
+     * Invoked by the type initializer of a native dispatcher before loading its library.
+     */
+    public static void nativeLoadStarted() {
+        NATIVE_LOAD.get()[0] = System.nanoTime();
+    }
+
+    /**
+     * Invoked by the type initializer of a native dispatcher after loading its library.
+     */
+    public static void nativeLoadCompleted() {
+        INSTANCE.nativeLoad.addAndGet(System.nanoTime() - NATIVE_LOAD.get()[0]);
+        INSTANCE.nativeLibrariesLoaded.incrementAndGet();
+    }
+
+    public void bootJarExtraction(long nanos) {
+        bootJarExtraction.addAndGet(nanos);
+    }
+
+    public void discovery(long nanos) {
+        discovery.addAndGet(nanos);
+    }
+
+    public void matching(long nanos) {
+        matching.addAndGet(nanos);
+    }
+
+    public void inspected() {
+        classesInspected.incrementAndGet();
+    }
+
+    public void transformed(long nanos) {
+        transformation.addAndGet(nanos);
+        classesTransformed.incrementAndGet();
+    }
+
+    public void nativeExtraction(long nanos) {
+        nativeExtraction.addAndGet(nanos);
+    }
+
+    public void installation(long nanos) {
+        installation.addAndGet(nanos);
+    }
+
+    @Override
+    public long getBootJarExtractionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(bootJarExtraction.get());
+    }
+
+    @Override
+    public long getDiscoveryMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(discovery.get());
+    }
+
+    @Override
+    public long getMatchingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(matching.get());
+    }
+
+    @Override
+    public long getTransformationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(transformation.get());
+    }
+
+    @Override
+    public long getNativeExtractionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nativeExtraction.get());
+    }
+
+    @Override
+    public long getNativeLoadMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nativeLoad.get());
+    }
+
+    @Override
+    public long getInstallationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(installation.get());
+    }
+
+    @Override
+    public long getClassesInspected() {
+        return classesInspected.get();
+    }
+
+    @Override
+    public long getClassesTransformed() {
+        return classesTransformed.get();
+    }
+
+    @Override
+    public long getNativeLibrariesLoaded() {
+        return nativeLibrariesLoaded.get();
+    }
+
+    @Override
+    public String getSummary() {
+        return "bootJarExtraction=" + getBootJarExtractionMillis() + "ms"
+                + ", discovery=" + getDiscoveryMillis() + "ms"
+                + ", installation=" + getInstallationMillis() + "ms"
+                + ", matching=" + getMatchingMillis() + "ms"
+                + ", transformation=" + getTransformationMillis() + "ms"
+                + ", nativeExtraction=" + getNativeExtractionMillis() + "ms"
+                + ", nativeLoad=" + getNativeLoadMillis() + "ms"
+                + ", classesInspected=" + getClassesInspected()
+                + ", classesTransformed=" + getClassesTransformed()
+                + ", nativeLibrariesLoaded=" + getNativeLibrariesLoaded();
+    }
+
+    @Override
+    public String toString() {
+        return "StartupStatistics{" + getSummary() + "}";
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Serializes the remaining content of a heap or direct byte buffer. Without this serializer, Kryo would
+ * serialize the fields of a direct buffer which include its native address.
+ */
+public class ByteBufferSerializer extends Serializer<ByteBuffer> {
+
+    @Override
+    public void write(Kryo kryo, Output output, ByteBuffer buffer) {
+        output.writeBoolean(buffer.isDirect());
+        output.writeBoolean(buffer.order() == ByteOrder.BIG_ENDIAN);
+        output.writeInt(buffer.remaining(), true);
+        ByteBuffer duplicate = buffer.duplicate();
+        byte[] chunk = new byte[Math.min(duplicate.remaining(), 8192)];
+        while (duplicate.hasRemaining()) {
+            int length = Math.min(duplicate.remaining(), chunk.length);
+            duplicate.get(chunk, 0, length);
+            output.writeBytes(chunk, 0, length);
+        }
+    }
+
+    @Override
+    public ByteBuffer read(Kryo kryo, Input input, Class<ByteBuffer> type) {
+        boolean direct = input.readBoolean();
+        ByteOrder order = input.readBoolean() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        int length = input.readInt(true);
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        if (direct) {
+            byte[] chunk = new byte[Math.min(length, 8192)];
+            while (buffer.hasRemaining()) {
+                int chunkLength = Math.min(buffer.remaining(), chunk.length);
+                input.readBytes(chunk, 0, chunkLength);
+                buffer.put(chunk, 0, chunkLength);
+            }
+        } else {
+            input.readBytes(buffer.array(), 0, length);
+        }
+        buffer.clear();
+        return buffer.order(order);
+    }
+}
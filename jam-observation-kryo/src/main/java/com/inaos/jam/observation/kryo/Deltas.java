@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation.kryo;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.SerializedValue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a payload as the byte ranges in which it differs from the payload of another value of the same
+ * observation, typically the transformed arguments of an in-place computation against its arguments. As primitive
+ * arrays of the same length are serialized to the same offsets, only the changed elements are written. A payload in
+ * this encoding starts with a negative argument count such that it is distinguished from other payloads and must be
+ * resolved against its observation, by {@link #resolve(Observation)} or
+ * {@link KryoSerializer#resolveArguments(Observation, String)}, before its arguments can be read. The agent only writes
+ * deltas if they are enabled.
+ */
+public class Deltas {
+
+    public static final int MARKER = -2;
+
+    // The marker is a small negative number that Kryo writes as a single zig-zag encoded byte.
+    private static final byte MARKER_BYTE = MARKER << 1 ^ MARKER >> 31;
+
+    // A range header costs about two bytes such that shorter runs of equal bytes are included in the enclosing range.
+    private static final int MIN_GAP = 4;
+
+    /**
+     * Replaces the value of {@code key} by a delta against the value of {@code base} if both values are present and if
+     * the delta is smaller than the value's payload.
+     */
+    public static Observation encode(Observation observation, String key, String base) {
+        int index = observation.indexOf(key);
+        SerializedValue value = index == -1 ? null : observation.value(index);
+        SerializedValue reference = observation.value(base);
+        if (value == null || reference == null || value.getArguments() == null || reference.getArguments() == null) {
+            return observation;
+        }
+        byte[] delta = encode(base, reference.getArguments(), value.getArguments());
+        return delta == null ? observation : observation.with(index, new SerializedValue(value.getTypes(), delta));
+    }
+
+    /**
+     * Replaces all deltas of an observation by the payloads that they encode. Payload references must be resolved
+     * before.
+     */
+    public static Observation resolve(Observation observation) {
+        for (int index = 0; index < observation.size(); index++) {
+            SerializedValue value = observation.value(index);
+            if (value != null && isDelta(value.getArguments())) {
+                observation = observation.with(index, resolve(observation, value));
+            }
+        }
+        return observation;
+    }
+
+    /**
+     * Returns the value that a value of an observation encodes, which is the value itself unless it is a delta.
+     * Payload references must be resolved before.
+     */
+    public static SerializedValue resolve(Observation observation, SerializedValue value) {
+        if (!isDelta(value.getArguments())) {
+            return value;
+        }
+        String base = baseOf(value.getArguments());
+        SerializedValue reference = observation.value(base);
+        if (reference == null || reference.getArguments() == null || isDelta(reference.getArguments())) {
+            throw new IllegalStateException("Unresolved delta base " + base + " in " + observation.getName());
+        }
+        return new SerializedValue(value.getTypes(), decode(value.getArguments(), reference.getArguments()));
+    }
+
+    public static boolean isDelta(byte[] payload) {
+        return payload != null && payload.length > 0 && payload[0] == MARKER_BYTE;
+    }
+
+    public static boolean isDelta(ByteBuffer payload) {
+        return payload.hasRemaining() && payload.get(payload.position()) == MARKER_BYTE;
+    }
+
+    /**
+     * Returns the key of the value that a delta is encoded against.
+     */
+    public static String baseOf(byte[] delta) {
+        Input in = new Input(delta);
+        in.readInt(false);
+        return in.readString();
+    }
+
+    /**
+     * Returns the payload that a delta encodes against the payload of its base.
+     */
+    public static byte[] decode(byte[] delta, byte[] reference) {
+        Input in = new Input(delta);
+        in.readInt(false);
+        in.readString();
+        return decode(in, reference);
+    }
+
+    private static byte[] encode(String base, byte[] reference, byte[] payload) {
+        if (payload.length <= MIN_GAP) {
+            return null;
+        }
+        // The delta is discarded once it is not smaller than the payload.
+        Output out = new Output(Math.min(payload.length - 1, 256), payload.length - 1);
+        try {
+            // Written as Kryo writes the argument count of any other payload.
+            out.writeInt(MARKER, false);
+            out.writeString(base);
+            out.writeInt(payload.length, true);
+            int common = Math.min(reference.length, payload.length), position = 0;
+            while (position < payload.length) {
+                int start = position;
+                while (start < common && reference[start] == payload[start]) {
+                    start++;
+                }
+                if (start == payload.length) {
+                    break;
+                }
+                int end = start, run = 0;
+                while (end + run < payload.length && run < MIN_GAP) {
+                    int at = end + run;
+                    if (at < common && reference[at] == payload[at]) {
+                        run++;
+                    } else {
+                        end = at + 1;
+                        run = 0;
+                    }
+                }
+                out.writeInt(start - position, true);
+                out.writeInt(end - start, true);
+                out.writeBytes(payload, start, end - start);
+                position = end;
+            }
+        } catch (KryoException e) {
+            return null;
+        }
+        return out.toBytes();
+    }
+
+    private static byte[] decode(Input in, byte[] reference) {
+        byte[] payload = new byte[in.readInt(true)];
+        int position = 0;
+        while (in.position() < in.limit()) {
+            int skip = in.readInt(true);
+            System.arraycopy(reference, position, payload, position, skip);
+            position += skip;
+            int count = in.readInt(true);
+            in.readBytes(payload, position, count);
+            position += count;
+        }
+        if (position < payload.length) {
+            System.arraycopy(reference, position, payload, position, payload.length - position);
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation.kryo;
+
+import com.esotericsoftware.kryo.ClassResolver;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.ReferenceResolver;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
+import com.inaos.jam.observation.SerializedValue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registers classes with stable ids such that Kryo does not write their names into every observation. A manifest
+ * always registers the classes of the observation format and primitive arrays, additional classes are listed in a
+ * file with one {@code <id> <class name>} entry per line, optionally followed by {@code references} if shared or
+ * cyclic references of the class's instances must be preserved. Reference tracking is disabled for all other
+ * registered classes. Classes that are always registered keep Kryo's reference tracking unless they are listed with
+ * their fixed id, in which case they are treated as any other entry. Classes are only resolved when they are first
+ * written or read. Writer and reader must use the same manifest, a writer stores it next to its sample file.
+ */
+public class KryoManifest {
+
+    public static final int FIRST_ENTRY_ID = 64;
+
+    private static final int FIRST_BUILT_IN_ID = 32;
+
+    private static final String[] BUILT_IN = {
+            HashMap.class.getName(),
+            SerializedValue.class.getName(),
+            String[].class.getName(),
+            boolean[].class.getName(),
+            byte[].class.getName(),
+            char[].class.getName(),
+            short[].class.getName(),
+            int[].class.getName(),
+            long[].class.getName(),
+            float[].class.getName(),
+            double[].class.getName(),
+            "java.nio.HeapByteBuffer",
+            "java.nio.DirectByteBuffer"
+    };
+
+    private static final String REFERENCES = "references";
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    private final Map<String, Entry> builtIns = new LinkedHashMap<String, Entry>();
+
+    private final Map<Integer, String> names = new HashMap<Integer, String>();
+
+    private int nextId = FIRST_ENTRY_ID;
+
+    public KryoManifest() {
+        for (int index = 0; index < BUILT_IN.length; index++) {
+            names.put(FIRST_BUILT_IN_ID + index, BUILT_IN[index]);
+        }
+    }
+
+    public static File sidecarOf(File sample) {
+        return new File(sample.getPath() + ".manifest");
+    }
+
+    /**
+     * Returns the manifest that is stored next to a sample file or {@code null} if the sample file was written
+     * without a manifest.
+     */
+    public static KryoManifest forSample(File sample) throws IOException {
+        File sidecar = sidecarOf(sample);
+        return sidecar.isFile() ? read(sidecar) : null;
+    }
+
+    public static KryoManifest read(File file) throws IOException {
+        KryoManifest manifest = new KryoManifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String[] elements = line.split("\\s+");
+                if (elements.length < 2 || elements.length > 3 || elements.length == 3 && !elements[2].equals(REFERENCES)) {
+                    throw new IllegalArgumentException("Malformed manifest entry in " + file + ": " + line);
+                }
+                manifest.add(Integer.parseInt(elements[0]), elements[1], elements.length == 3);
+            }
+        } finally {
+            reader.close();
+        }
+        return manifest;
+    }
+
+    public void write(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.println("# Kryo registrations: <id> <class name> [" + REFERENCES + "]");
+            write(writer, builtIns);
+            write(writer, entries);
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Could not write manifest: " + file);
+        }
+    }
+
+    private static void write(PrintWriter writer, Map<String, Entry> entries) {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            writer.println(entry.getValue().id + " " + entry.getKey() + (entry.getValue().references ? " " + REFERENCES : ""));
+        }
+    }
+
+    public void add(int id, String type, boolean references) {
+        int builtIn = builtInIndexOf(type);
+        if (builtIn != -1) {
+            if (id != FIRST_BUILT_IN_ID + builtIn) {
+                throw new IllegalArgumentException("Built-in manifest entry " + type + " has id " + (FIRST_BUILT_IN_ID + builtIn) + ": " + id);
+            } else if (builtIns.containsKey(type)) {
+                throw new IllegalArgumentException("Duplicate manifest entry: " + id + " for " + type);
+            }
+            builtIns.put(type, new Entry(id, references));
+            return;
+        } else if (id < FIRST_ENTRY_ID) {
+            throw new IllegalArgumentException("Manifest ids start at " + FIRST_ENTRY_ID + ": " + id + " for " + type);
+        } else if (names.containsKey(id) || entries.containsKey(type) || isBuiltIn(type)) {
+            throw new IllegalArgumentException("Duplicate manifest entry: " + id + " for " + type);
+        }
+        entries.put(type, new Entry(id, references));
+        names.put(id, type);
+        nextId = Math.max(nextId, id + 1);
+    }
+
+    /**
+     * Adds a class with the next free id or, if it is always registered, with its fixed id unless it is already
+     * added. If it is, reference tracking is enabled if requested.
+     */
+    public void add(String type, boolean references) {
+        Entry entry = entries.get(type);
+        if (entry == null) {
+            entry = builtIns.get(type);
+        }
+        if (entry != null) {
+            entry.references |= references;
+        } else if (isBuiltIn(type)) {
+            add(FIRST_BUILT_IN_ID + builtInIndexOf(type), type, references);
+        } else {
+            add(nextId, type, references);
+        }
+    }
+
+    public boolean contains(String type) {
+        return entries.containsKey(type) || isBuiltIn(type);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty() && builtIns.isEmpty();
+    }
+
+    private static boolean isBuiltIn(String type) {
+        return builtInIndexOf(type) != -1;
+    }
+
+    private static int builtInIndexOf(String type) {
+        for (int index = 0; index < BUILT_IN.length; index++) {
+            if (BUILT_IN[index].equals(type)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    public ClassResolver classResolver() {
+        return new ManifestClassResolver();
+    }
+
+    public ReferenceResolver referenceResolver() {
+        return new ManifestReferenceResolver();
+    }
+
+    public Kryo newKryo() {
+        Kryo kryo = new Kryo(classResolver(), referenceResolver());
+        kryo.addDefaultSerializer(ByteBuffer.class, new ByteBufferSerializer());
+        return kryo;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof KryoManifest
+                && entries.equals(((KryoManifest) other).entries)
+                && builtIns.equals(((KryoManifest) other).builtIns);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * entries.hashCode() + builtIns.hashCode();
+    }
+
+    private static class Entry {
+
+        final int id;
+
+        boolean references;
+
+        Entry(int id, boolean references) {
+            this.id = id;
+            this.references = references;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry && id == ((Entry) other).id && references == ((Entry) other).references;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * id + (references ? 1 : 0);
+        }
+    }
+
+    private class ManifestClassResolver extends DefaultClassResolver {
+
+        @Override
+        public Registration registerImplicit(Class type) {
+            Integer id = idOf(type.getName());
+            if (id == null) {
+                return super.registerImplicit(type);
+            }
+            return register(new Registration(type, kryo.getDefaultSerializer(type), id));
+        }
+
+        @Override
+        public Registration readClass(Input input) {
+            int classId = input.readVarInt(true);
+            if (classId == Kryo.NULL) {
+                return null;
+            } else if (classId == NAME + 2) {
+                return readName(input);
+            }
+            Registration registration = idToRegistration.get(classId - 2);
+            if (registration == null) {
+                String name = names.get(classId - 2);
+                if (name == null) {
+                    throw new KryoException("Encountered unregistered class ID: " + (classId - 2));
+                }
+                Class<?> type;
+                try {
+                    type = Class.forName(name, false, kryo.getClassLoader());
+                } catch (ClassNotFoundException e) {
+                    throw new KryoException("Unable to find class of manifest entry " + (classId - 2) + ": " + name, e);
+                }
+                registration = register(new Registration(type, kryo.getDefaultSerializer(type), classId - 2));
+            }
+            return registration;
+        }
+
+        private Integer idOf(String name) {
+            Entry entry = entries.get(name);
+            if (entry != null) {
+                return entry.id;
+            }
+            int builtIn = builtInIndexOf(name);
+            return builtIn == -1 ? null : FIRST_BUILT_IN_ID + builtIn;
+        }
+    }
+
+    private class ManifestReferenceResolver extends MapReferenceResolver {
+
+        private final Map<Class<?>, Boolean> decisions = new IdentityHashMap<Class<?>, Boolean>();
+
+        @Override
+        public boolean useReferences(Class type) {
+            Boolean decision = decisions.get(type);
+            if (decision == null) {
+                Entry entry = entries.get(type.getName());
+                if (entry == null) {
+                    entry = builtIns.get(type.getName());
+                }
+                decision = entry == null ? super.useReferences(type) : entry.references;
+                decisions.put(type, decision);
+            }
+            return decision;
+        }
+    }
+}
@@ -19,23 +19,46 @@ package com.inaos.jam.observation.kryo;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.observation.Observation;
 import com.inaos.jam.observation.SerializedValue;
+import com.inaos.jam.observation.Spill;
 
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class KryoSerializer {
 
     private final Kryo kryo;
 
+    private final boolean rawArrays;
+
     public KryoSerializer() {
         kryo = new Kryo();
         kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        kryo.addDefaultSerializer(ByteBuffer.class, new ByteBufferSerializer());
+        rawArrays = false;
+    }
+
+    public KryoSerializer(KryoManifest manifest) {
+        kryo = manifest.newKryo();
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        rawArrays = false;
     }
 
     public KryoSerializer(Kryo kryo) {
+        this(kryo, false);
+    }
+
+    /**
+     * If {@code rawArrays} is {@code true}, values are written in the {@link RawArrays} encoding.
+     */
+    public KryoSerializer(Kryo kryo, boolean rawArrays) {
         this.kryo = kryo;
+        this.rawArrays = rawArrays;
     }
 
     public SerializedValue make(Class<?> type, Object argument) {
@@ -45,8 +68,12 @@ public class KryoSerializer {
         String[] serializedTypes = {type.getName()};
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
         Output out = new Output(bytes);
-        kryo.writeObject(out, 1);
-        kryo.writeClassAndObject(out, argument);
+        if (rawArrays) {
+            RawArrays.write(kryo, out, new Object[]{argument});
+        } else {
+            kryo.writeObject(out, 1);
+            kryo.writeClassAndObject(out, argument);
+        }
         out.close();
         return new SerializedValue(serializedTypes, bytes.toByteArray());
     }
@@ -59,17 +86,69 @@ public class KryoSerializer {
         }
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
         Output out = new Output(bytes);
-        kryo.writeObject(out, arguments.length);
-        for (Object argument : arguments) {
-            kryo.writeClassAndObject(out, argument);
+        if (rawArrays) {
+            RawArrays.write(kryo, out, arguments);
+        } else {
+            kryo.writeObject(out, arguments.length);
+            for (Object argument : arguments) {
+                kryo.writeClassAndObject(out, argument);
+            }
         }
         out.close();
         return new SerializedValue(serializedTypes, bytes.toByteArray());
     }
 
     public Object[] resolveArguments(SerializedValue value) {
-        Input in = new Input(value.getArguments());
-        Object[] arguments = new Object[kryo.readObject(in, Integer.class)];
+        return resolve(value, false);
+    }
+
+    /**
+     * Resolves the arguments of an observation's value or returns {@code null} if the observation has no such value. A
+     * value that is a {@link Deltas delta} against another value of the observation is decoded first.
+     */
+    public Object[] resolveArguments(Observation observation, String key) {
+        SerializedValue value = observation.value(key);
+        return value == null ? null : resolve(Deltas.resolve(observation, value), false);
+    }
+
+    /**
+     * Resolves the arguments of a value where arrays that were streamed to a spill file are read from the spill file
+     * within the given folder of the sample file.
+     */
+    public Object[] resolveArguments(SerializedValue value, File folder) throws IOException {
+        return Spill.load(resolve(value, false), folder);
+    }
+
+    /**
+     * Resolves the arguments of a value where arrays in the {@link RawArrays} encoding are returned as read-only
+     * {@link java.nio.DoubleBuffer}, {@link java.nio.FloatBuffer}, {@link java.nio.IntBuffer} or
+     * {@link java.nio.LongBuffer} views of the serialized value instead of being copied into arrays.
+     */
+    public Object[] resolveViews(SerializedValue value) {
+        return resolve(value, true);
+    }
+
+    /**
+     * Resolves the arguments of a payload between the buffer's position and limit, for example of a
+     * {@link MappedSample}, where arrays in the {@link RawArrays} encoding are returned as read-only views of the buffer.
+     */
+    public Object[] resolveViews(ByteBuffer payload) {
+        payload = payload.slice();
+        return resolve(payload, new ReadOnlyByteBufferInput(payload.duplicate()), true);
+    }
+
+    private Object[] resolve(SerializedValue value, boolean views) {
+        return resolve(ByteBuffer.wrap(value.getArguments()), new Input(value.getArguments()), views);
+    }
+
+    private Object[] resolve(ByteBuffer payload, Input in, boolean views) {
+        int count = kryo.readObject(in, Integer.class);
+        if (count == RawArrays.MARKER) {
+            return RawArrays.read(kryo, payload, in, views);
+        } else if (count == Deltas.MARKER) {
+            throw new IllegalArgumentException("Cannot resolve a delta without its observation");
+        }
+        Object[] arguments = new Object[count];
         for (int index = 0; index < arguments.length; index++) {
             arguments[index] = kryo.readClassAndObject(in);
         }
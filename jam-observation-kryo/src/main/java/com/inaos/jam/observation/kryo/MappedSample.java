@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.Input;
+import com.inaos.jam.observation.BlockFormat;
+import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.SerializedValue;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the observations of an uncompressed sample file from a memory mapping without copying their payloads. The
+ * arguments of a value are resolved by {@link KryoSerializer#resolveViews(ByteBuffer)} such that arrays in the
+ * {@link RawArrays} encoding are viewed within the mapping where they are aligned to eight bytes if the writer set
+ * the {@link ObservationSerializer#origin(long) origin} of its records. Payload references
+ * are resolved to the payload that they refer to. Sample files in {@link BlockFormat} and the segment files of a
+ * sharded capture before merging cannot be mapped. Instances are not thread-safe.
+ */
+public class MappedSample {
+
+    private static final byte[] NO_ARGUMENTS = new byte[0];
+
+    private final Input input;
+
+    private final Kryo kryo;
+
+    private final KryoSerializer serializer;
+
+    private final PayloadLocator locator = new PayloadLocator();
+
+    private final Map<ByteBuffer, ByteBuffer> payloads = new HashMap<ByteBuffer, ByteBuffer>();
+
+    private Observation observation;
+
+    private ByteBuffer[] arguments;
+
+    public MappedSample(File file) throws IOException {
+        this(file, KryoManifest.forSample(file));
+    }
+
+    public MappedSample(File file, KryoManifest manifest) throws IOException {
+        MappedByteBuffer buffer;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Cannot map a sample file of more than " + Integer.MAX_VALUE + " bytes: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+        byte[] header = BlockFormat.header();
+        if (buffer.remaining() >= header.length) {
+            buffer.duplicate().get(header);
+            if (BlockFormat.isBlockFormat(header)) {
+                throw new IllegalArgumentException("Cannot map a compressed sample file: " + file);
+            }
+        }
+        input = new ReadOnlyByteBufferInput(buffer);
+        if (manifest == null) {
+            kryo = new Kryo();
+            kryo.addDefaultSerializer(ByteBuffer.class, new ByteBufferSerializer());
+        } else {
+            kryo = manifest.newKryo();
+        }
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        kryo.addDefaultSerializer(Observation.class, locator);
+        serializer = new KryoSerializer(kryo);
+    }
+
+    /**
+     * Advances to the next observation and returns {@code false} if the sample file is exhausted.
+     */
+    public boolean next() {
+        if (input.eof()) {
+            observation = null;
+            arguments = null;
+            return false;
+        }
+        locator.located.clear();
+        observation = kryo.readObject(input, Observation.class);
+        arguments = new ByteBuffer[observation.size()];
+        int located = 0;
+        for (int index = 0; index < arguments.length; index++) {
+            SerializedValue value = observation.value(index);
+            if (value == null) {
+                continue;
+            }
+            arguments[index] = locator.located.get(located++);
+            if (value.isReference()) {
+                arguments[index] = payloads.get(ByteBuffer.wrap(value.getDigest()));
+                if (arguments[index] == null) {
+                    throw new IllegalStateException("Unresolved payload reference in " + observation.getName() + " for " + observation.key(index));
+                }
+            } else if (value.getDigest() != null) {
+                payloads.put(ByteBuffer.wrap(value.getDigest()), arguments[index]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current observation where the values do not contain their payloads, the arguments of a value are
+     * resolved by {@link #views(int)}.
+     */
+    public Observation observation() {
+        if (observation == null) {
+            throw new IllegalStateException("No current observation");
+        }
+        return observation;
+    }
+
+    /**
+     * Resolves the arguments of the current observation's value at {@code index} or returns {@code null} if the
+     * observation has no such value. A value that is delta-encoded against another value is decoded into a copy such
+     * that its views are not within the mapping.
+     */
+    public Object[] views(int index) {
+        ByteBuffer payload = arguments[index];
+        if (payload == null) {
+            return null;
+        } else if (Deltas.isDelta(payload)) {
+            byte[] delta = toBytes(payload);
+            String base = Deltas.baseOf(delta);
+            int reference = observation().indexOf(base);
+            if (reference == -1 || arguments[reference] == null || Deltas.isDelta(arguments[reference])) {
+                throw new IllegalStateException("Unresolved delta base " + base + " in " + observation.getName() + " for " + observation.key(index));
+            }
+            payload = ByteBuffer.wrap(Deltas.decode(delta, toBytes(arguments[reference])));
+        }
+        return serializer.resolveViews(payload);
+    }
+
+    public Object[] views(String key) {
+        int index = observation().indexOf(key);
+        return index == -1 ? null : views(index);
+    }
+
+    private static byte[] toBytes(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static class PayloadLocator extends ObservationSerializer {
+
+        final List<ByteBuffer> located = new ArrayList<ByteBuffer>();
+
+        @Override
+        byte[] readArguments(Input input, int length) {
+            if (length == -1) {
+                located.add(null);
+                return null;
+            }
+            ByteBuffer payload = ((ByteBufferInput) input).getByteBuffer().duplicate();
+            payload.position(input.position());
+            payload.limit(input.position() + length);
+            located.add(payload.slice());
+            input.setPosition(input.position() + length);
+            return NO_ARGUMENTS;
+        }
+    }
+}
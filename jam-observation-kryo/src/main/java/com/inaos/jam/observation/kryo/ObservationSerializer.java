@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.observation.Dictionary;
+import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.SerializedValue;
+
+/**
+ * Serializes observations compactly where names, keys and type names are written by a {@link Dictionary}: a string
+ * is written and defined on its first occurrence and is referenced by its id subsequently. The dictionary spans all
+ * observations that an instance writes or reads such that an instance must only be used for a single stream that is
+ * read from its beginning. If a writer does not use a dictionary, every observation is self-contained and strings
+ * are written inline, for example if a stream is not read from its beginning. A reader accepts both forms.
+ * <p>
+ * Payloads in the {@link RawArrays} encoding are padded such that they start at a multiple of eight bytes within
+ * their file if the writer sets the {@link #origin(long) origin} of its output, which allows readers of a mapped file
+ * to view their arrays aligned.
+ * <p>
+ * Every observation starts with the {@link #FORMAT} of its encoding. Observations that were written by field
+ * serialization before this serializer start with the null marker of their name instead and are rejected with a
+ * {@link KryoException}.
+ */
+public class ObservationSerializer extends Serializer<Observation> {
+
+    /**
+     * The version of the encoding which differs from the null marker that an observation in the former encoding starts
+     * with.
+     */
+    public static final byte FORMAT = 2;
+
+    private static final int INLINE = 0, DEFINE = 1, OFFSET = 2;
+
+    private static final int NO_PAYLOAD = 0, ALIGNED_PAYLOAD = 1, PAYLOAD_OFFSET = 2, ALIGNMENT = 8;
+
+    private boolean dictionary;
+
+    private final Dictionary strings = new Dictionary();
+
+    private long origin;
+
+    public ObservationSerializer() {
+        this(false);
+    }
+
+    public ObservationSerializer(boolean dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Writes all subsequent strings inline. A writer must switch to inline strings if observations that it has
+     * written are lost as a reader would otherwise not know the strings that these observations defined.
+     */
+    public void inline() {
+        dictionary = false;
+    }
+
+    /**
+     * Sets the position within the file at which the next output that an observation is written to starts such that
+     * raw arrays can be aligned within the file.
+     */
+    public void origin(long origin) {
+        this.origin = origin;
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, Observation observation) {
+        output.writeByte(FORMAT);
+        writeString(output, observation.getName());
+        output.writeInt(observation.size(), true);
+        for (int index = 0; index < observation.size(); index++) {
+            writeString(output, observation.key(index));
+            SerializedValue value = observation.value(index);
+            if (value == null) {
+                output.writeInt(0, true);
+                continue;
+            }
+            String[] types = value.getTypes();
+            output.writeInt(types.length + 1, true);
+            for (String type : types) {
+                writeString(output, type);
+            }
+            writeArguments(output, value.getArguments());
+            writeBytes(output, value.getDigest());
+        }
+    }
+
+    @Override
+    public Observation read(Kryo kryo, Input input, Class<Observation> type) {
+        byte format = input.readByte();
+        if (format != FORMAT) {
+            throw new KryoException("Unsupported observation format " + format + ", expected " + FORMAT
+                    + ": samples that were written by an earlier version cannot be read");
+        }
+        String name = readString(input);
+        String[] keys = new String[input.readInt(true)];
+        SerializedValue[] values = new SerializedValue[keys.length];
+        for (int index = 0; index < keys.length; index++) {
+            keys[index] = readString(input);
+            int length = input.readInt(true);
+            if (length == 0) {
+                continue;
+            }
+            String[] types = new String[length - 1];
+            for (int typeIndex = 0; typeIndex < types.length; typeIndex++) {
+                types[typeIndex] = readString(input);
+            }
+            byte[] arguments = readArguments(input, readArgumentsLength(input));
+            values[index] = new SerializedValue(types, arguments, readBytes(input));
+        }
+        return new Observation(name, keys, values);
+    }
+
+    private void writeString(Output output, String string) {
+        if (dictionary) {
+            int id = strings.idOf(string);
+            if (id != -1) {
+                output.writeInt(id + OFFSET, true);
+                return;
+            } else if (strings.define(string) != -1) {
+                output.writeInt(DEFINE, true);
+                output.writeString(string);
+                return;
+            }
+        }
+        output.writeInt(INLINE, true);
+        output.writeString(string);
+    }
+
+    private String readString(Input input) {
+        int tag = input.readInt(true);
+        if (tag == INLINE) {
+            return input.readString();
+        } else if (tag == DEFINE) {
+            String string = input.readString();
+            strings.define(string);
+            return string;
+        } else {
+            return strings.get(tag - OFFSET);
+        }
+    }
+
+    private void writeArguments(Output output, byte[] arguments) {
+        if (arguments == null) {
+            output.writeInt(NO_PAYLOAD, true);
+        } else if (RawArrays.isRawArrays(arguments)) {
+            output.writeInt(ALIGNED_PAYLOAD, true);
+            output.writeInt(arguments.length, true);
+            int padding = (int) ((ALIGNMENT - (origin + output.total() + 1) % ALIGNMENT) % ALIGNMENT);
+            output.writeByte(padding);
+            for (int index = 0; index < padding; index++) {
+                output.writeByte(0);
+            }
+            output.writeBytes(arguments);
+        } else {
+            output.writeInt(arguments.length + PAYLOAD_OFFSET, true);
+            output.writeBytes(arguments);
+        }
+    }
+
+    /**
+     * Reads the length of a value's payload and skips its padding, the payload follows or the length is {@code -1}
+     * if the value has no payload.
+     */
+    private static int readArgumentsLength(Input input) {
+        int tag = input.readInt(true);
+        if (tag == NO_PAYLOAD) {
+            return -1;
+        } else if (tag == ALIGNED_PAYLOAD) {
+            int length = input.readInt(true);
+            input.skip(input.readByte());
+            return length;
+        }
+        return tag - PAYLOAD_OFFSET;
+    }
+
+    /**
+     * Reads the payload of a value of the given length where a subclass might locate the payload in its input instead
+     * of copying it.
+     */
+    byte[] readArguments(Input input, int length) {
+        return length == -1 ? null : input.readBytes(length);
+    }
+
+    private static void writeBytes(Output output, byte[] bytes) {
+        if (bytes == null) {
+            output.writeInt(0, true);
+        } else {
+            output.writeInt(bytes.length + 1, true);
+            output.writeBytes(bytes);
+        }
+    }
+
+    private static byte[] readBytes(Input input) {
+        int length = input.readInt(true);
+        return length == 0 ? null : input.readBytes(length - 1);
+    }
+}
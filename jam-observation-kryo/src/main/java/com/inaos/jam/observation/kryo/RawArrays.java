@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes {@code double}, {@code float}, {@code int} and {@code long} arrays of a payload as raw little-endian
+ * elements that are preceded by a small header and aligned to eight bytes relative to the start of the payload. The
+ * {@link ObservationSerializer} aligns such payloads within their file.
+ * Readers can view such arrays as typed buffers without deserializing them, all other arguments are serialized by
+ * Kryo. A payload in this encoding starts with a negative argument count such that it is distinguished from a
+ * payload where all arguments are serialized by Kryo.
+ */
+public class RawArrays {
+
+    public static final int MARKER = -1;
+
+    private static final int ALIGNMENT = 8, CHUNK = 8 * 1024;
+
+    private static final byte KRYO = 0, DOUBLES = 1, FLOATS = 2, INTS = 3, LONGS = 4;
+
+    public static boolean isRawArrays(byte[] payload) {
+        // The marker is a small negative number that Kryo writes as a single zig-zag encoded byte.
+        return payload != null && payload.length > 0 && payload[0] == (MARKER << 1 ^ MARKER >> 31);
+    }
+
+    public static void write(Kryo kryo, Output out, Object[] arguments) {
+        kryo.writeObject(out, MARKER);
+        out.writeInt(arguments.length, true);
+        ByteBuffer chunk = null;
+        for (Object argument : arguments) {
+            byte tag = tagOf(argument);
+            out.writeByte(tag);
+            if (tag == KRYO) {
+                kryo.writeClassAndObject(out, argument);
+                continue;
+            }
+            int length = Array.getLength(argument);
+            out.writeInt(length, true);
+            for (long position = out.total(); position % ALIGNMENT != 0; position++) {
+                out.writeByte(0);
+            }
+            if (chunk == null) {
+                chunk = ByteBuffer.allocate(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            int size = sizeOf(tag), step = CHUNK / size;
+            for (int offset = 0; offset < length; offset += step) {
+                int count = Math.min(step, length - offset);
+                chunk.clear();
+                switch (tag) {
+                    case DOUBLES:
+                        chunk.asDoubleBuffer().put((double[]) argument, offset, count);
+                        break;
+                    case FLOATS:
+                        chunk.asFloatBuffer().put((float[]) argument, offset, count);
+                        break;
+                    case INTS:
+                        chunk.asIntBuffer().put((int[]) argument, offset, count);
+                        break;
+                    default:
+                        chunk.asLongBuffer().put((long[]) argument, offset, count);
+                }
+                out.writeBytes(chunk.array(), 0, count * size);
+            }
+        }
+    }
+
+    /**
+     * Reads the arguments of a payload that was written by this encoding after its marker was consumed where the
+     * payload starts at index zero of {@code payload} and the input's position is relative to this start. If
+     * {@code views} is {@code true}, raw arrays are returned as read-only typed buffers over the payload rather than
+     * as arrays.
+     */
+    static Object[] read(Kryo kryo, ByteBuffer payload, Input in, boolean views) {
+        Object[] arguments = new Object[in.readInt(true)];
+        for (int index = 0; index < arguments.length; index++) {
+            byte tag = in.readByte();
+            if (tag == KRYO) {
+                arguments[index] = kryo.readClassAndObject(in);
+                continue;
+            }
+            int length = in.readInt(true);
+            int start = in.position();
+            while (start % ALIGNMENT != 0) {
+                start++;
+            }
+            int size = sizeOf(tag);
+            ByteBuffer buffer = payload.duplicate();
+            buffer.position(start);
+            buffer.limit(start + length * size);
+            buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            if (views) {
+                buffer = buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            }
+            switch (tag) {
+                case DOUBLES:
+                    if (views) {
+                        arguments[index] = buffer.asDoubleBuffer();
+                    } else {
+                        double[] array = new double[length];
+                        buffer.asDoubleBuffer().get(array);
+                        arguments[index] = array;
+                    }
+                    break;
+                case FLOATS:
+                    if (views) {
+                        arguments[index] = buffer.asFloatBuffer();
+                    } else {
+                        float[] array = new float[length];
+                        buffer.asFloatBuffer().get(array);
+                        arguments[index] = array;
+                    }
+                    break;
+                case INTS:
+                    if (views) {
+                        arguments[index] = buffer.asIntBuffer();
+                    } else {
+                        int[] array = new int[length];
+                        buffer.asIntBuffer().get(array);
+                        arguments[index] = array;
+                    }
+                    break;
+                case LONGS:
+                    if (views) {
+                        arguments[index] = buffer.asLongBuffer();
+                    } else {
+                        long[] array = new long[length];
+                        buffer.asLongBuffer().get(array);
+                        arguments[index] = array;
+                    }
+                    break;
+                default:
+                    throw new KryoException("Unknown raw array tag: " + tag);
+            }
+            in.setPosition(start + length * size);
+        }
+        return arguments;
+    }
+
+    private static byte tagOf(Object argument) {
+        if (argument instanceof double[]) {
+            return DOUBLES;
+        } else if (argument instanceof float[]) {
+            return FLOATS;
+        } else if (argument instanceof int[]) {
+            return INTS;
+        } else if (argument instanceof long[]) {
+            return LONGS;
+        } else {
+            return KRYO;
+        }
+    }
+
+    private static int sizeOf(byte tag) {
+        switch (tag) {
+            case DOUBLES:
+            case LONGS:
+                return 8;
+            case FLOATS:
+            case INTS:
+                return 4;
+            default:
+                throw new KryoException("Unknown raw array tag: " + tag);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation.kryo;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads from a buffer that might be read-only, such as a read-only memory mapping. Kryo's input temporarily modifies
+ * the buffer when reading an ASCII string which is therefore read without modification.
+ */
+class ReadOnlyByteBufferInput extends ByteBufferInput {
+
+    ReadOnlyByteBufferInput(ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    @Override
+    public String readString() {
+        ByteBuffer buffer = getByteBuffer();
+        int start = position();
+        if (start == limit() || (buffer.get(start) & 0x80) != 0) {
+            return super.readString();
+        }
+        // An ASCII string ends with the first byte that has its high bit set.
+        int end = start;
+        while ((buffer.get(end) & 0x80) == 0) {
+            if (++end == limit()) {
+                throw new KryoException("Buffer underflow.");
+            }
+        }
+        char[] chars = new char[end - start + 1];
+        for (int index = 0; index < chars.length; index++) {
+            chars[index] = (char) (buffer.get(start + index) & 0x7F);
+        }
+        setPosition(end + 1);
+        return new String(chars);
+    }
+}
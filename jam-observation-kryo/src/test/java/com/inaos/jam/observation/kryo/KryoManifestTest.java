@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.ReferenceResolver;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KryoManifestTest {
+
+    @Test
+    public void testBuiltInsKeepReferences() {
+        ReferenceResolver resolver = new KryoManifest().referenceResolver();
+        assertTrue(resolver.useReferences(HashMap.class));
+        assertTrue(resolver.useReferences(String[].class));
+        assertTrue(resolver.useReferences(double[].class));
+    }
+
+    @Test
+    public void testRegisteredClassesDisableReferences() {
+        KryoManifest manifest = new KryoManifest();
+        manifest.add(Sample.class.getName(), false);
+        manifest.add(Other.class.getName(), true);
+        ReferenceResolver resolver = manifest.referenceResolver();
+        assertFalse(resolver.useReferences(Sample.class));
+        assertTrue(resolver.useReferences(Other.class));
+    }
+
+    @Test
+    public void testBuiltInReferencesCanBeDisabled() {
+        KryoManifest manifest = new KryoManifest();
+        manifest.add(double[].class.getName(), false);
+        assertFalse(manifest.isEmpty());
+        assertFalse(manifest.referenceResolver().useReferences(double[].class));
+        assertTrue(manifest.referenceResolver().useReferences(int[].class));
+        manifest.add(double[].class.getName(), true);
+        assertTrue(manifest.referenceResolver().useReferences(double[].class));
+    }
+
+    @Test
+    public void testReferencesToBuiltInsArePreserved() {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("foo", "bar");
+        List<Object> values = new ArrayList<Object>();
+        values.add(map);
+        values.add(map);
+        List<?> copy = roundTrip(new KryoManifest(), values);
+        assertEquals(values, copy);
+        assertSame(copy.get(0), copy.get(1));
+        KryoManifest manifest = new KryoManifest();
+        manifest.add(HashMap.class.getName(), false);
+        copy = roundTrip(manifest, values);
+        assertEquals(values, copy);
+        assertNotSame(copy.get(0), copy.get(1));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        KryoManifest manifest = new KryoManifest();
+        manifest.add(Sample.class.getName(), true);
+        manifest.add(Other.class.getName(), false);
+        manifest.add(double[].class.getName(), false);
+        File file = File.createTempFile("jam", ".manifest");
+        try {
+            manifest.write(file);
+            KryoManifest read = KryoManifest.read(file);
+            assertEquals(manifest, read);
+            assertFalse(read.referenceResolver().useReferences(double[].class));
+            assertTrue(read.referenceResolver().useReferences(Sample.class));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRegisteredClassesAreNotNamed() {
+        KryoManifest manifest = new KryoManifest();
+        manifest.add(Sample.class.getName(), false);
+        Output named = new Output(1024, -1), registered = new Output(1024, -1);
+        new Kryo().writeClassAndObject(named, new Sample());
+        manifest.newKryo().writeClassAndObject(registered, new Sample());
+        assertTrue(registered.position() < named.position());
+        Object sample = manifest.newKryo().readClassAndObject(new Input(registered.toBytes()));
+        assertTrue(sample instanceof Sample);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuiltInWithOtherId() {
+        new KryoManifest().add(KryoManifest.FIRST_ENTRY_ID, double[].class.getName(), false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateId() {
+        KryoManifest manifest = new KryoManifest();
+        manifest.add(KryoManifest.FIRST_ENTRY_ID, Sample.class.getName(), false);
+        manifest.add(KryoManifest.FIRST_ENTRY_ID, Other.class.getName(), false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIdBelowEntries() {
+        new KryoManifest().add(KryoManifest.FIRST_ENTRY_ID - 1, Sample.class.getName(), false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<?> roundTrip(KryoManifest manifest, List<Object> values) {
+        Output out = new Output(1024, -1);
+        manifest.newKryo().writeObject(out, values);
+        return manifest.newKryo().readObject(new Input(out.toBytes()), ArrayList.class);
+    }
+
+    public static class Sample {
+    }
+
+    public static class Other {
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.SerializedValue;
+
+import org.junit.Test;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KryoSerializerTest {
+
+    private static final Class<?>[] TYPES = {double[].class, String.class, float[].class, int[].class, long[].class, int[].class, Object.class};
+
+    @Test
+    public void testKryoEncoding() {
+        KryoSerializer serializer = new KryoSerializer(newKryo(), false);
+        assertArguments(serializer.resolveArguments(serializer.make(TYPES, arguments())));
+        assertArguments(serializer.resolveViews(serializer.make(TYPES, arguments())));
+    }
+
+    @Test
+    public void testRawArrayEncoding() {
+        KryoSerializer serializer = new KryoSerializer(newKryo(), true);
+        SerializedValue value = serializer.make(TYPES, arguments());
+        assertArguments(serializer.resolveArguments(value));
+    }
+
+    @Test
+    public void testRawArrayEncodingIsReadByDefault() {
+        SerializedValue value = new KryoSerializer(newKryo(), true).make(TYPES, arguments());
+        assertArguments(new KryoSerializer().resolveArguments(value));
+    }
+
+    @Test
+    public void testSingleArgument() {
+        for (boolean rawArrays : new boolean[]{false, true}) {
+            KryoSerializer serializer = new KryoSerializer(newKryo(), rawArrays);
+            assertArrayEquals(new double[]{1, 2}, (double[]) serializer.resolveArguments(serializer.make(double[].class, new double[]{1, 2}))[0], 0d);
+            assertNull(serializer.make(void.class, null));
+        }
+    }
+
+    @Test
+    public void testViews() {
+        KryoSerializer serializer = new KryoSerializer(newKryo(), true);
+        SerializedValue value = serializer.make(TYPES, arguments());
+        assertViews(serializer.resolveViews(value));
+        assertViews(serializer.resolveViews(ByteBuffer.wrap(value.getArguments())));
+    }
+
+    @Test
+    public void testViewsOfPayloadWithinBuffer() {
+        KryoSerializer serializer = new KryoSerializer(newKryo(), true);
+        byte[] payload = serializer.make(TYPES, arguments()).getArguments();
+        // The payload is placed at an offset that breaks the alignment relative to the buffer.
+        ByteBuffer buffer = ByteBuffer.allocateDirect(payload.length + 13);
+        buffer.position(5);
+        buffer.put(payload);
+        buffer.position(5);
+        buffer.limit(5 + payload.length);
+        assertViews(serializer.resolveViews(buffer));
+        assertEquals(5, buffer.position());
+    }
+
+    @Test
+    public void testRawArraysAreAlignedWithinPayload() {
+        Kryo kryo = newKryo();
+        KryoSerializer serializer = new KryoSerializer(kryo, true);
+        for (int padding = 0; padding < 8; padding++) {
+            char[] chars = new char[padding];
+            Arrays.fill(chars, 'x');
+            byte[] payload = serializer.make(new Class<?>[]{String.class, double[].class}, new Object[]{new String(chars), new double[]{Math.PI}}).getArguments();
+            long bits = Double.doubleToLongBits(Math.PI);
+            int offset = -1;
+            for (int index = 0; index + 8 <= payload.length && offset == -1; index++) {
+                if (ByteBuffer.wrap(payload, index, 8).order(java.nio.ByteOrder.LITTLE_ENDIAN).getLong() == bits) {
+                    offset = index;
+                }
+            }
+            assertEquals(0, offset % 8);
+        }
+    }
+
+    @Test
+    public void testDeltaIsResolvedAgainstItsObservation() {
+        for (boolean rawArrays : new boolean[]{false, true}) {
+            KryoSerializer serializer = new KryoSerializer(newKryo(), rawArrays);
+            double[] transformed = ((double[]) arguments()[0]).clone();
+            transformed[3] = 42;
+            Observation observation = Deltas.encode(new Observation("foo", new String[]{"arguments", "transformed"}, new SerializedValue[]{
+                    serializer.make(double[].class, arguments()[0]),
+                    serializer.make(double[].class, transformed)
+            }), "transformed", "arguments");
+            assertTrue(Deltas.isDelta(observation.value("transformed").getArguments()));
+            assertArrayEquals(transformed, (double[]) serializer.resolveArguments(observation, "transformed")[0], 0d);
+            assertArrayEquals((double[]) arguments()[0], (double[]) serializer.resolveArguments(observation, "arguments")[0], 0d);
+            assertNull(serializer.resolveArguments(observation, "other"));
+        }
+    }
+
+    @Test
+    public void testTruncatedPayloadIsNotDelta() {
+        assertFalse(Deltas.isDelta(new byte[]{(byte) 0x80}));
+        assertFalse(Deltas.isDelta(new byte[0]));
+    }
+
+    private static Kryo newKryo() {
+        Kryo kryo = new Kryo();
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        return kryo;
+    }
+
+    static Object[] arguments() {
+        double[] doubles = new double[1000];
+        for (int index = 0; index < doubles.length; index++) {
+            doubles[index] = index / 3d;
+        }
+        return new Object[]{doubles, "foo", new float[]{1.5f, -2f}, new int[]{1, 2, 3}, new long[]{Long.MAX_VALUE, Long.MIN_VALUE}, new int[0], null};
+    }
+
+    private static void assertArguments(Object[] resolved) {
+        Object[] expected = arguments();
+        assertEquals(expected.length, resolved.length);
+        assertArrayEquals((double[]) expected[0], (double[]) resolved[0], 0d);
+        assertEquals(expected[1], resolved[1]);
+        assertArrayEquals((float[]) expected[2], (float[]) resolved[2], 0f);
+        assertArrayEquals((int[]) expected[3], (int[]) resolved[3]);
+        assertArrayEquals((long[]) expected[4], (long[]) resolved[4]);
+        assertArrayEquals((int[]) expected[5], (int[]) resolved[5]);
+        assertNull(resolved[6]);
+    }
+
+    static void assertViews(Object[] resolved) {
+        Object[] expected = arguments();
+        assertEquals(expected.length, resolved.length);
+        DoubleBuffer doubles = (DoubleBuffer) resolved[0];
+        assertTrue(doubles.isReadOnly());
+        double[] copy = new double[doubles.remaining()];
+        doubles.duplicate().get(copy);
+        assertArrayEquals((double[]) expected[0], copy, 0d);
+        assertEquals(expected[1], resolved[1]);
+        FloatBuffer floats = (FloatBuffer) resolved[2];
+        assertEquals(2, floats.remaining());
+        assertEquals(-2f, floats.get(1), 0f);
+        IntBuffer ints = (IntBuffer) resolved[3];
+        assertEquals(3, ints.remaining());
+        assertEquals(3, ints.get(2));
+        LongBuffer longs = (LongBuffer) resolved[4];
+        assertEquals(Long.MIN_VALUE, longs.get(1));
+        assertEquals(0, ((IntBuffer) resolved[5]).remaining());
+        assertNull(resolved[6]);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.observation.BlockFormat;
+import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.Payloads;
+import com.inaos.jam.observation.SerializedValue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedSampleTest {
+
+    private static final Class<?>[] TYPES = {double[].class, String.class, float[].class, int[].class, long[].class, int[].class, Object.class};
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("jam", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testViewsOfMappedPayloads() throws Exception {
+        KryoSerializer serializer = new KryoSerializer(newKryo(), true);
+        write(true, new Observation("foo", new String[]{"arguments", "result"}, new SerializedValue[]{
+                serializer.make(TYPES, KryoSerializerTest.arguments()),
+                null
+        }), new Observation("bar", new String[]{"arguments"}, new SerializedValue[]{
+                serializer.make(double[].class, new double[]{1, 2, 3})
+        }));
+        MappedSample sample = new MappedSample(file, null);
+        assertTrue(sample.next());
+        assertEquals("foo", sample.observation().getName());
+        KryoSerializerTest.assertViews(sample.views("arguments"));
+        assertNull(sample.views("result"));
+        assertNull(sample.views("other"));
+        assertTrue(sample.next());
+        assertEquals("bar", sample.observation().getName());
+        DoubleBuffer view = (DoubleBuffer) sample.views(0)[0];
+        assertTrue(view.isDirect());
+        assertArrayEquals(new double[]{1, 2, 3}, copy(view), 0d);
+        assertFalse(sample.next());
+    }
+
+    @Test
+    public void testRawArraysAreAlignedInFile() throws Exception {
+        KryoSerializer serializer = new KryoSerializer(newKryo(), true);
+        Observation[] observations = new Observation[8];
+        for (int index = 0; index < observations.length; index++) {
+            observations[index] = new Observation("foo" + "xxxxxxx".substring(index), new String[]{"arguments"}, new SerializedValue[]{
+                    serializer.make(double[].class, new double[]{index + 0.5, Math.PI})
+            });
+        }
+        write(false, observations);
+        byte[] bytes = new byte[(int) file.length()];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int found = 0;
+        for (int position = 0; position + 16 <= bytes.length; position++) {
+            if (buffer.getDouble(position + 8) == Math.PI && buffer.getDouble(position) == found + 0.5) {
+                assertEquals(0, position % 8);
+                found++;
+            }
+        }
+        assertEquals(observations.length, found);
+        MappedSample sample = new MappedSample(file, null);
+        for (int index = 0; index < observations.length; index++) {
+            assertTrue(sample.next());
+            assertArrayEquals(new double[]{index + 0.5, Math.PI}, copy((DoubleBuffer) sample.views(0)[0]), 0d);
+        }
+        assertFalse(sample.next());
+    }
+
+    @Test
+    public void testKryoEncodedPayloads() throws Exception {
+        KryoSerializer serializer = new KryoSerializer(newKryo(), false);
+        write(false, new Observation("f\u00f6o", new String[]{"arguments"}, new SerializedValue[]{
+                serializer.make(new Class<?>[]{String.class, double[].class}, new Object[]{"bar", new double[]{4, 5}})
+        }));
+        MappedSample sample = new MappedSample(file, null);
+        assertTrue(sample.next());
+        assertEquals("f\u00f6o", sample.observation().getName());
+        Object[] arguments = sample.views("arguments");
+        assertEquals("bar", arguments[0]);
+        assertArrayEquals(new double[]{4, 5}, (double[]) arguments[1], 0d);
+        assertFalse(sample.next());
+    }
+
+    @Test
+    public void testPayloadReferences() throws Exception {
+        KryoSerializer serializer = new KryoSerializer(newKryo(), true);
+        Payloads payloads = new Payloads();
+        Observation[] observations = new Observation[3];
+        for (int index = 0; index < observations.length; index++) {
+            observations[index] = payloads.deduplicate(new Observation("foo", new String[]{"arguments"}, new SerializedValue[]{
+                    serializer.make(TYPES, KryoSerializerTest.arguments())
+            }));
+            payloads.written(observations[index]);
+        }
+        assertTrue(observations[2].value(0).isReference());
+        write(true, observations);
+        MappedSample sample = new MappedSample(file, null);
+        for (int index = 0; index < observations.length; index++) {
+            assertTrue(sample.next());
+            KryoSerializerTest.assertViews(sample.views(0));
+        }
+        assertFalse(sample.next());
+    }
+
+    @Test
+    public void testViewsOfDeltas() throws Exception {
+        KryoSerializer serializer = new KryoSerializer(newKryo(), true);
+        double[] arguments = (double[]) KryoSerializerTest.arguments()[0], transformed = arguments.clone();
+        transformed[3] = 42;
+        Observation observation = Deltas.encode(new Observation("foo", new String[]{"arguments", "transformed"}, new SerializedValue[]{
+                serializer.make(double[].class, arguments),
+                serializer.make(double[].class, transformed)
+        }), "transformed", "arguments");
+        assertTrue(Deltas.isDelta(observation.value(1).getArguments()));
+        write(false, observation);
+        MappedSample sample = new MappedSample(file, null);
+        assertTrue(sample.next());
+        assertArrayEquals(arguments, copy((DoubleBuffer) sample.views("arguments")[0]), 0d);
+        assertArrayEquals(transformed, copy((DoubleBuffer) sample.views("transformed")[0]), 0d);
+        assertFalse(sample.next());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompressedSampleCannotBeMapped() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(BlockFormat.header());
+        } finally {
+            out.close();
+        }
+        new MappedSample(file, null);
+    }
+
+    @Test
+    public void testEmptySample() throws Exception {
+        assertFalse(new MappedSample(file, null).next());
+    }
+
+    private void write(boolean dictionary, Observation... observations) throws IOException {
+        Kryo kryo = newKryo();
+        kryo.addDefaultSerializer(Observation.class, new ObservationSerializer(dictionary));
+        Output out = new Output(new FileOutputStream(file));
+        try {
+            for (Observation observation : observations) {
+                kryo.writeObject(out, observation);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Kryo newKryo() {
+        Kryo kryo = new Kryo();
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        return kryo;
+    }
+
+    private static double[] copy(DoubleBuffer buffer) {
+        double[] copy = new double[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+}
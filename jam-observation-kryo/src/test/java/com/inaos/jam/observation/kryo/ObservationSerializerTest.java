@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.observation.Dictionary;
+import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.SerializedValue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ObservationSerializerTest {
+
+    @Test
+    public void testDictionaryRoundTrip() {
+        Kryo writer = newKryo(true);
+        Output out = new Output(4096, -1);
+        writer.writeObject(out, observation("foo", 1));
+        int first = out.position();
+        writer.writeObject(out, observation("foo", 2));
+        // Strings that were defined by the first observation are only referenced by the second.
+        assertTrue(out.position() - first < first);
+        writer.writeObject(out, observation("bar", 3));
+        assertObservations(read(newKryo(false), out.toBytes()), "foo", 1, "foo", 2, "bar", 3);
+    }
+
+    @Test
+    public void testInlineObservationsAreSelfContained() {
+        Kryo writer = newKryo(false);
+        Output out = new Output(4096, -1);
+        writer.writeObject(out, observation("foo", 2));
+        int first = out.position();
+        writer.writeObject(out, observation("foo", 4));
+        assertEquals(first, out.position() - first);
+        byte[] second = new byte[out.position() - first];
+        System.arraycopy(out.getBuffer(), first, second, 0, second.length);
+        assertObservations(read(newKryo(false), second), "foo", 4);
+    }
+
+    @Test
+    public void testInlineAppendToDictionaryStream() {
+        Output out = new Output(4096, -1);
+        Kryo writer = newKryo(true);
+        writer.writeObject(out, observation("foo", 1));
+        writer.writeObject(out, observation("foo", 2));
+        // An appending writer does not know the stream's dictionary and writes its strings inline.
+        Kryo appender = newKryo(false);
+        appender.writeObject(out, observation("foo", 3));
+        appender.writeObject(out, observation("bar", 4));
+        assertObservations(read(newKryo(false), out.toBytes()), "foo", 1, "foo", 2, "foo", 3, "bar", 4);
+    }
+
+    @Test
+    public void testInlineAfterLostObservation() {
+        Kryo writer = newKryo(true);
+        Output out = new Output(4096, -1), lost = new Output(4096, -1);
+        writer.writeObject(out, observation("foo", 1));
+        writer.writeObject(lost, observation("bar", 2));
+        ((ObservationSerializer) writer.getDefaultSerializer(Observation.class)).inline();
+        writer.writeObject(out, observation("bar", 3));
+        writer.writeObject(out, observation("foo", 4));
+        assertObservations(read(newKryo(false), out.toBytes()), "foo", 1, "bar", 3, "foo", 4);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLostObservationBreaksDictionary() {
+        Kryo writer = newKryo(true);
+        Output out = new Output(4096, -1), lost = new Output(4096, -1);
+        writer.writeObject(lost, observation("bar", 1));
+        writer.writeObject(out, observation("bar", 2));
+        read(newKryo(false), out.toBytes());
+    }
+
+    @Test
+    public void testFullDictionaryWritesInline() {
+        Kryo writer = newKryo(true);
+        Output out = new Output(4096, -1);
+        List<Object> expected = new ArrayList<Object>();
+        for (int index = 0; index < Dictionary.MAX_SIZE / 3 + 2; index++) {
+            writer.writeObject(out, observation("name" + index, index));
+            expected.add("name" + index);
+            expected.add(index);
+        }
+        writer.writeObject(out, observation("name0", 0));
+        expected.add("name0");
+        expected.add(0);
+        assertObservations(read(newKryo(false), out.toBytes()), expected.toArray());
+    }
+
+    @Test
+    public void testAbsentValue() {
+        Kryo writer = newKryo(true);
+        Output out = new Output(4096, -1);
+        writer.writeObject(out, new Observation("foo", new String[]{"result"}, new SerializedValue[]{null}));
+        List<Observation> observations = read(newKryo(false), out.toBytes());
+        assertEquals(1, observations.size());
+        assertNull(observations.get(0).value("result"));
+    }
+
+    @Test
+    public void testEarlierFormatIsRejected() {
+        // Field serialization started an observation with the null marker of its name.
+        Output out = new Output(4096, -1);
+        out.writeVarInt(Kryo.NOT_NULL, true);
+        out.writeVarInt(Kryo.NOT_NULL, true);
+        out.writeString("foo");
+        try {
+            read(newKryo(false), out.toBytes());
+            fail();
+        } catch (KryoException e) {
+            assertTrue(e.getMessage().startsWith("Unsupported observation format"));
+        }
+    }
+
+    private static Kryo newKryo(boolean dictionary) {
+        Kryo kryo = new Kryo();
+        kryo.addDefaultSerializer(Observation.class, new ObservationSerializer(dictionary));
+        return kryo;
+    }
+
+    // Every observation defines three strings: its name, its key and its type name.
+    private static Observation observation(String name, int value) {
+        return new Observation(name,
+                new String[]{"arguments"},
+                new SerializedValue[]{new SerializedValue(new String[]{name + ".type"}, new byte[]{(byte) value})});
+    }
+
+    private static List<Observation> read(Kryo kryo, byte[] bytes) {
+        List<Observation> observations = new ArrayList<Observation>();
+        Input in = new Input(bytes);
+        while (!in.eof()) {
+            observations.add(kryo.readObject(in, Observation.class));
+        }
+        return observations;
+    }
+
+    private static void assertObservations(List<Observation> observations, Object... expected) {
+        assertEquals(expected.length / 2, observations.size());
+        for (int index = 0; index < observations.size(); index++) {
+            Observation observation = observations.get(index);
+            assertEquals(expected[index * 2], observation.getName());
+            assertEquals("arguments", observation.key(0));
+            assertArrayEquals(new String[]{expected[index * 2] + ".type"}, observation.value(0).getTypes());
+            assertArrayEquals(new byte[]{((Integer) expected[index * 2 + 1]).byteValue()}, observation.value(0).getArguments());
+        }
+    }
+}
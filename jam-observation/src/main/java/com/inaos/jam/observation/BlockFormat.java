@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation;
+
+import org.iq80.snappy.Snappy;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A sample file in block format starts with {@link #MAGIC} and is followed by independently compressed blocks of
+ * serialized observations. Every block consists of its codec, its uncompressed length, its compressed length and
+ * its compressed bytes. A block is stored uncompressed if compression does not reduce its size.
+ */
+public class BlockFormat {
+
+    public static final byte STORED = 0, SNAPPY = 1, DEFLATE = 2;
+
+    private static final byte[] MAGIC = {0, 'J', 'A', 'M'};
+
+    public static byte codec(String name) {
+        if (name.equals("snappy")) {
+            return SNAPPY;
+        } else if (name.equals("deflate")) {
+            return DEFLATE;
+        } else if (name.equals("none")) {
+            return STORED;
+        } else {
+            throw new IllegalArgumentException("Unknown codec: " + name);
+        }
+    }
+
+    public static byte[] header() {
+        return MAGIC.clone();
+    }
+
+    public static boolean isBlockFormat(byte[] header) {
+        return Arrays.equals(header, MAGIC);
+    }
+
+    public static byte[] encode(byte codec, byte[] bytes, int length) {
+        byte[] compressed;
+        int compressedLength;
+        if (codec == SNAPPY) {
+            compressed = new byte[Snappy.maxCompressedLength(length)];
+            compressedLength = Snappy.compress(bytes, 0, length, compressed, 0);
+        } else if (codec == DEFLATE) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(bytes, 0, length);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+                byte[] buffer = new byte[64 * 1024];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                compressed = out.toByteArray();
+                compressedLength = compressed.length;
+            } finally {
+                deflater.end();
+            }
+        } else if (codec == STORED) {
+            compressed = bytes;
+            compressedLength = length;
+        } else {
+            throw new IllegalArgumentException("Unknown codec: " + codec);
+        }
+        if (compressedLength >= length) {
+            codec = STORED;
+            compressed = bytes;
+            compressedLength = length;
+        }
+        ByteArrayOutputStream block = new ByteArrayOutputStream(compressedLength + 9);
+        DataOutputStream out = new DataOutputStream(block);
+        try {
+            out.writeByte(codec);
+            out.writeInt(length);
+            out.writeInt(compressedLength);
+            out.write(compressed, 0, compressedLength);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return block.toByteArray();
+    }
+
+    public static byte[] decode(byte codec, int length, byte[] compressed) throws IOException {
+        if (codec == STORED) {
+            return compressed;
+        } else if (codec == SNAPPY) {
+            byte[] bytes = new byte[length];
+            Snappy.uncompress(compressed, 0, compressed.length, bytes, 0);
+            return bytes;
+        } else if (codec == DEFLATE) {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                byte[] bytes = new byte[length];
+                int offset = 0;
+                while (offset < length && !inflater.finished()) {
+                    offset += inflater.inflate(bytes, offset, length - offset);
+                }
+                return bytes;
+            } catch (DataFormatException e) {
+                throw new IOException(e.getMessage());
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new IOException("Unknown codec: " + codec);
+        }
+    }
+
+    /**
+     * Opens a sample file that is either in block format or a plain sequence of serialized observations. If an
+     * executor is given, blocks are decompressed ahead of reading in parallel.
+     */
+    public static InputStream open(File file, ExecutorService executor) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        in.mark(MAGIC.length);
+        byte[] header = new byte[MAGIC.length];
+        int read = 0;
+        while (read < header.length) {
+            int count = in.read(header, read, header.length - read);
+            if (count == -1) {
+                break;
+            }
+            read += count;
+        }
+        if (read == header.length && isBlockFormat(header)) {
+            return new BlockInputStream(in, executor);
+        }
+        in.reset();
+        return in;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the uncompressed content of the blocks that follow the header of a sample file in {@link BlockFormat}. A
+ * truncated final block ends the stream such that the complete blocks of an interrupted writer remain readable.
+ */
+public class BlockInputStream extends InputStream {
+
+    private static final int READ_AHEAD_PER_THREAD = 2;
+
+    private final DataInputStream in;
+
+    private final ExecutorService executor;
+
+    private final Queue<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+    private final int readAhead;
+
+    private byte[] block = new byte[0];
+
+    private int position;
+
+    private boolean exhausted;
+
+    public BlockInputStream(InputStream in, ExecutorService executor) {
+        this.in = new DataInputStream(in);
+        this.executor = executor;
+        readAhead = executor == null ? 0 : Runtime.getRuntime().availableProcessors() * READ_AHEAD_PER_THREAD;
+    }
+
+    private boolean next() throws IOException {
+        while (!exhausted && pending.size() <= readAhead) {
+            final byte codec;
+            final int length;
+            final byte[] compressed;
+            try {
+                codec = in.readByte();
+                length = in.readInt();
+                compressed = new byte[in.readInt()];
+                in.readFully(compressed);
+            } catch (EOFException e) {
+                // A block that was only partially appended when the writing process ended is not read.
+                exhausted = true;
+                break;
+            }
+            if (executor == null) {
+                block = BlockFormat.decode(codec, length, compressed);
+                position = 0;
+                return true;
+            }
+            pending.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return BlockFormat.decode(codec, length, compressed);
+                }
+            }));
+        }
+        Future<byte[]> future = pending.poll();
+        if (future == null) {
+            return false;
+        }
+        try {
+            block = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decompressing block");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause().getMessage());
+        }
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (position == block.length) {
+            if (!next()) {
+                return -1;
+            }
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (position == block.length) {
+            if (!next()) {
+                return -1;
+            }
+        }
+        int count = Math.min(length, block.length - position);
+        System.arraycopy(block, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : pending) {
+            future.cancel(true);
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns consecutive ids to the names, keys and type names of a stream of observations such that every string is
+ * only written once. A reader defines strings in the order in which a writer defined them. Instances are not
+ * thread-safe.
+ */
+public class Dictionary {
+
+    public static final int MAX_SIZE = 64 * 1024;
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    private final List<String> strings = new ArrayList<String>();
+
+    /**
+     * Returns the id of a string or {@code -1} if it is not defined.
+     */
+    public int idOf(String string) {
+        Integer id = ids.get(string);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Defines a string and returns its id or returns {@code -1} if the dictionary is full.
+     */
+    public int define(String string) {
+        if (strings.size() == MAX_SIZE) {
+            return -1;
+        }
+        ids.put(string, strings.size());
+        strings.add(string);
+        return strings.size() - 1;
+    }
+
+    public String get(int id) {
+        if (id < 0 || id >= strings.size()) {
+            throw new IllegalStateException("Undefined dictionary id: " + id);
+        }
+        return strings.get(id);
+    }
+}
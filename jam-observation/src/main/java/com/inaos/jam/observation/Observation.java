@@ -17,18 +17,40 @@
 package com.inaos.jam.observation;
 
 import java.io.Serializable;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * An observation of a call. Its values are held by a small array of keys and values in the order of their capture
+ * rather than by a map.
+ */
 public class Observation implements Serializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     private final String name;
 
-    private final Map<String, SerializedValue> values;
+    private final String[] keys;
+
+    private final SerializedValue[] values;
 
     public Observation(String name, Map<String, SerializedValue> values) {
         this.name = name;
+        keys = new String[values.size()];
+        this.values = new SerializedValue[values.size()];
+        int index = 0;
+        for (Map.Entry<String, SerializedValue> entry : values.entrySet()) {
+            keys[index] = entry.getKey();
+            this.values[index++] = entry.getValue();
+        }
+    }
+
+    public Observation(String name, String[] keys, SerializedValue[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Expected as many keys as values: " + keys.length + " != " + values.length);
+        }
+        this.name = name;
+        this.keys = keys;
         this.values = values;
     }
 
@@ -36,11 +58,52 @@ public class Observation implements Serializable {
         return name;
     }
 
+    /**
+     * Returns a copy of this observation's values as a map.
+     */
     public Map<String, SerializedValue> getValues() {
+        Map<String, SerializedValue> values = new LinkedHashMap<String, SerializedValue>();
+        for (int index = 0; index < keys.length; index++) {
+            values.put(keys[index], this.values[index]);
+        }
         return values;
     }
 
     public SerializedValue value(String name) {
-        return values.get(name);
+        int index = indexOf(name);
+        return index == -1 ? null : values[index];
+    }
+
+    /**
+     * Returns the index of a key or {@code -1} if this observation does not contain it.
+     */
+    public int indexOf(String name) {
+        for (int index = 0; index < keys.length; index++) {
+            if (keys[index].equals(name)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public String key(int index) {
+        return keys[index];
+    }
+
+    public SerializedValue value(int index) {
+        return values[index];
+    }
+
+    /**
+     * Returns an observation with the same keys where the value at the given index is replaced.
+     */
+    public Observation with(int index, SerializedValue value) {
+        SerializedValue[] values = this.values.clone();
+        values[index] = value;
+        return new Observation(name, keys, values);
     }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Deduplicates the serialized payloads of a sample file by their content hash. A writer replaces every payload that
+ * it has already written by a reference to its digest, a reader substitutes every reference with the payload that
+ * it has read before. References are resolved by digest such that segment files can be merged in any order that
+ * preserves the order within every segment. Instances are not thread-safe.
+ * <p>
+ * A writer retains at most {@link #MAX_RETAINED_BYTES} of payloads that can be referenced, payloads beyond this bound
+ * are written inline. The bound applies to every writer and therefore to every segment of a sharded capture such
+ * that a reader of merged segments retains up to this bound for every merged segment.
+ */
+public class Payloads {
+
+    public static final int MIN_PAYLOAD_SIZE = 256;
+
+    public static final long MAX_RETAINED_BYTES = 256 * 1024 * 1024;
+
+    private final MessageDigest messageDigest;
+
+    private final Set<ByteBuffer> written = new HashSet<ByteBuffer>();
+
+    private final Map<ByteBuffer, byte[]> read = new HashMap<ByteBuffer, byte[]>();
+
+    private long retainedBytes;
+
+    public Payloads() {
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Replaces payloads that were written before by references and adds a digest to payloads that can be referenced
+     * subsequently. The payloads are only referenced by later observations after the returned observation is
+     * {@link #written(Observation) written}.
+     */
+    public Observation deduplicate(Observation observation) {
+        Set<ByteBuffer> defined = null;
+        long definedBytes = 0;
+        for (int index = 0; index < observation.size(); index++) {
+            SerializedValue value = observation.value(index);
+            if (value == null || value.getDigest() != null || value.getArguments().length < MIN_PAYLOAD_SIZE) {
+                continue;
+            }
+            ByteBuffer digest = ByteBuffer.wrap(messageDigest.digest(value.getArguments()));
+            if (written.contains(digest) || defined != null && defined.contains(digest)) {
+                // Values of an observation are resolved in order such that a value can refer to a previous value.
+                observation = observation.with(index, new SerializedValue(value.getTypes(), null, digest.array()));
+            } else if (retainedBytes + definedBytes + value.getArguments().length <= MAX_RETAINED_BYTES) {
+                if (defined == null) {
+                    defined = new HashSet<ByteBuffer>();
+                }
+                defined.add(digest);
+                definedBytes += value.getArguments().length;
+                observation = observation.with(index, new SerializedValue(value.getTypes(), value.getArguments(), digest.array()));
+            }
+        }
+        return observation;
+    }
+
+    /**
+     * Registers the payloads of a {@link #deduplicate(Observation) deduplicated} observation after it was written
+     * such that they are referenced subsequently.
+     */
+    public void written(Observation observation) {
+        for (int index = 0; index < observation.size(); index++) {
+            SerializedValue value = observation.value(index);
+            if (value != null && value.getDigest() != null && !value.isReference() && written.add(ByteBuffer.wrap(value.getDigest()))) {
+                retainedBytes += value.getArguments().length;
+            }
+        }
+    }
+
+    /**
+     * Forgets all written payloads, for example if written observations were lost, such that no payload is referenced
+     * that a reader cannot resolve.
+     */
+    public void reset() {
+        written.clear();
+        retainedBytes = 0;
+    }
+
+    public Observation resolve(Observation observation) {
+        for (int index = 0; index < observation.size(); index++) {
+            SerializedValue value = observation.value(index);
+            if (value == null || value.getDigest() == null) {
+                continue;
+            }
+            byte[] arguments;
+            if (value.isReference()) {
+                arguments = read.get(ByteBuffer.wrap(value.getDigest()));
+                if (arguments == null) {
+                    throw new IllegalStateException("Unresolved payload reference in " + observation.getName() + " for " + observation.key(index));
+                }
+            } else {
+                arguments = value.getArguments();
+                read.put(ByteBuffer.wrap(value.getDigest()), arguments);
+            }
+            observation = observation.with(index, new SerializedValue(value.getTypes(), arguments));
+        }
+        return observation;
+    }
+}
@@ -26,9 +26,20 @@ public class SerializedValue implements Serializable {
 
     private final byte[] arguments;
 
+    private final byte[] digest;
+
     public SerializedValue(String[] types, byte[] arguments) {
+        this(types, arguments, null);
+    }
+
+    /**
+     * A value with a digest is registered by {@link Payloads} such that later values with the same content can refer
+     * to it. A value with a digest but without arguments is such a reference.
+     */
+    public SerializedValue(String[] types, byte[] arguments, byte[] digest) {
         this.types = types;
         this.arguments = arguments;
+        this.digest = digest;
     }
 
     public String[] getTypes() {
@@ -39,6 +50,14 @@ public class SerializedValue implements Serializable {
         return arguments;
     }
 
+    public byte[] getDigest() {
+        return digest;
+    }
+
+    public boolean isReference() {
+        return digest != null && arguments == null;
+    }
+
     public Class<?>[] resolveTypes(ClassLoader classLoader) {
         Class<?>[] types = new Class<?>[this.types.length];
         int index = 0;
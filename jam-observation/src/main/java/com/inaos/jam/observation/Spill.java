@@ -0,0 +1,239 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Refers to a primitive array that was too large to be captured in an observation and that was written as
+ * little-endian elements to a spill file next to the sample file instead. Arrays are written in chunks without
+ * copying them.
+ */
+public class Spill implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int CHUNK = 64 * 1024;
+
+    private final String file;
+
+    private final String type;
+
+    private final int length;
+
+    private final long offset;
+
+    private Spill(String file, String type, int length, long offset) {
+        this.file = file;
+        this.type = type;
+        this.length = length;
+        this.offset = offset;
+    }
+
+    /**
+     * Appends a primitive array to a spill file. The caller must serialize appends to the same file.
+     */
+    public static Spill write(File file, Object array) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = out.getChannel();
+            long offset = channel.size();
+            channel.position(offset);
+            int length = Array.getLength(array);
+            ByteBuffer chunk = chunk();
+            for (int index = 0; index < length; ) {
+                index += fill(chunk, array, index);
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+            return new Spill(file.getName(), array.getClass().getComponentType().getName(), length, offset);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the spilled array from its spill file within the folder of the sample file.
+     */
+    public Object load(File folder) throws IOException {
+        Class<?> componentType = componentType();
+        Object array = Array.newInstance(componentType, length);
+        int size = sizeOf(componentType);
+        RandomAccessFile in = new RandomAccessFile(new File(folder, file), "r");
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer chunk = chunk();
+            long position = offset;
+            for (int index = 0; index < length; ) {
+                int count = Math.min(CHUNK / size, length - index);
+                chunk.clear().limit(count * size);
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk, position + chunk.position()) < 0) {
+                        throw new IOException("Spill file is truncated: " + file);
+                    }
+                }
+                chunk.flip();
+                if (array instanceof double[]) {
+                    chunk.asDoubleBuffer().get((double[]) array, index, count);
+                } else if (array instanceof float[]) {
+                    chunk.asFloatBuffer().get((float[]) array, index, count);
+                } else if (array instanceof long[]) {
+                    chunk.asLongBuffer().get((long[]) array, index, count);
+                } else if (array instanceof int[]) {
+                    chunk.asIntBuffer().get((int[]) array, index, count);
+                } else if (array instanceof short[]) {
+                    chunk.asShortBuffer().get((short[]) array, index, count);
+                } else if (array instanceof char[]) {
+                    chunk.asCharBuffer().get((char[]) array, index, count);
+                } else if (array instanceof byte[]) {
+                    chunk.get((byte[]) array, index, count);
+                } else {
+                    for (int element = 0; element < count; element++) {
+                        ((boolean[]) array)[index + element] = chunk.get(element) != 0;
+                    }
+                }
+                position += count * size;
+                index += count;
+            }
+        } finally {
+            in.close();
+        }
+        return array;
+    }
+
+    /**
+     * Replaces the spilled arrays among resolved arguments by the arrays that are read from their spill files within
+     * the folder of the sample file. The arguments are returned as they are if none were spilled.
+     */
+    public static Object[] load(Object[] arguments, File folder) throws IOException {
+        Object[] loaded = arguments;
+        for (int index = 0; index < arguments.length; index++) {
+            if (arguments[index] instanceof Spill) {
+                if (loaded == arguments) {
+                    loaded = arguments.clone();
+                }
+                loaded[index] = ((Spill) arguments[index]).load(folder);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns {@code true} if the spill file within the folder of the sample file contains the spilled array.
+     */
+    public boolean isAvailable(File folder) {
+        return new File(folder, file).length() >= offset + (long) length * sizeOf(componentType());
+    }
+
+    static ByteBuffer chunk() {
+        return ByteBuffer.allocate(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Fills a cleared chunk with the little-endian elements of an array from an offset on and returns the number of
+     * elements. The chunk's position is set to the number of bytes.
+     */
+    static int fill(ByteBuffer chunk, Object array, int offset) {
+        chunk.clear();
+        int size = sizeOf(array.getClass().getComponentType()), count = Math.min(CHUNK / size, Array.getLength(array) - offset);
+        if (array instanceof double[]) {
+            chunk.asDoubleBuffer().put((double[]) array, offset, count);
+        } else if (array instanceof float[]) {
+            chunk.asFloatBuffer().put((float[]) array, offset, count);
+        } else if (array instanceof long[]) {
+            chunk.asLongBuffer().put((long[]) array, offset, count);
+        } else if (array instanceof int[]) {
+            chunk.asIntBuffer().put((int[]) array, offset, count);
+        } else if (array instanceof short[]) {
+            chunk.asShortBuffer().put((short[]) array, offset, count);
+        } else if (array instanceof char[]) {
+            chunk.asCharBuffer().put((char[]) array, offset, count);
+        } else if (array instanceof byte[]) {
+            chunk.put((byte[]) array, offset, count);
+            return count;
+        } else {
+            for (int index = 0; index < count; index++) {
+                chunk.put((byte) (((boolean[]) array)[offset + index] ? 1 : 0));
+            }
+            return count;
+        }
+        chunk.position(count * size);
+        return count;
+    }
+
+    /**
+     * Returns the size of an array in bytes if it is a primitive array or {@code -1} otherwise.
+     */
+    public static long sizeOf(Object value) {
+        if (value == null || !value.getClass().isArray() || !value.getClass().getComponentType().isPrimitive()) {
+            return -1;
+        }
+        return (long) Array.getLength(value) * sizeOf(value.getClass().getComponentType());
+    }
+
+    private static int sizeOf(Class<?> componentType) {
+        if (componentType == double.class || componentType == long.class) {
+            return 8;
+        } else if (componentType == float.class || componentType == int.class) {
+            return 4;
+        } else if (componentType == short.class || componentType == char.class) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+    private Class<?> componentType() {
+        Class<?>[] types = {double.class, float.class, long.class, int.class, short.class, char.class, byte.class, boolean.class};
+        for (Class<?> componentType : types) {
+            if (componentType.getName().equals(type)) {
+                return componentType;
+            }
+        }
+        throw new IllegalStateException("Not a primitive type: " + type);
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return "Spill{file=" + file + ", type=" + type + ", length=" + length + ", offset=" + offset + "}";
+    }
+}
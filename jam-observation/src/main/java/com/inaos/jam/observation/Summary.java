@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Describes a primitive array that was too large to be captured in full by its length, the CRC-32 checksum of its
+ * little-endian elements, the range and histogram of its values and a subsample of every {@code stride}-th element.
+ * The summary is computed without copying the array.
+ */
+public class Summary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int BUCKETS = 16, SUBSAMPLE_SIZE = 1024;
+
+    private final String type;
+
+    private final int length;
+
+    private final long checksum;
+
+    private final double min, max;
+
+    private final long[] histogram;
+
+    private final int stride;
+
+    private final Object subsample;
+
+    private Summary(String type, int length, long checksum, double min, double max, long[] histogram, int stride, Object subsample) {
+        this.type = type;
+        this.length = length;
+        this.checksum = checksum;
+        this.min = min;
+        this.max = max;
+        this.histogram = histogram;
+        this.stride = stride;
+        this.subsample = subsample;
+    }
+
+    public static Summary of(Object array) {
+        Class<?> componentType = array.getClass().getComponentType();
+        int length = Array.getLength(array);
+        CRC32 crc = new CRC32();
+        ByteBuffer chunk = Spill.chunk();
+        for (int offset = 0; offset < length; ) {
+            int count = Spill.fill(chunk, array, offset);
+            crc.update(chunk.array(), 0, chunk.position());
+            offset += count;
+        }
+        double min = Double.NaN, max = Double.NaN;
+        for (int index = 0; index < length; index++) {
+            double value = valueAt(array, index);
+            if (value < min || Double.isNaN(min)) {
+                min = value;
+            }
+            if (value > max || Double.isNaN(max)) {
+                max = value;
+            }
+        }
+        long[] histogram = new long[BUCKETS];
+        if (!Double.isNaN(min)) {
+            double width = (max - min) / BUCKETS;
+            for (int index = 0; index < length; index++) {
+                double value = valueAt(array, index);
+                if (!Double.isNaN(value)) {
+                    histogram[width == 0 ? 0 : Math.min((int) ((value - min) / width), BUCKETS - 1)]++;
+                }
+            }
+        }
+        int stride = Math.max(1, (length + SUBSAMPLE_SIZE - 1) / SUBSAMPLE_SIZE);
+        Object subsample = Array.newInstance(componentType, (length + stride - 1) / stride);
+        for (int index = 0; index < Array.getLength(subsample); index++) {
+            System.arraycopy(array, index * stride, subsample, index, 1);
+        }
+        return new Summary(componentType.getName(), length, crc.getValue(), min, max, histogram, stride, subsample);
+    }
+
+    private static double valueAt(Object array, int index) {
+        if (array instanceof double[]) {
+            return ((double[]) array)[index];
+        } else if (array instanceof float[]) {
+            return ((float[]) array)[index];
+        } else if (array instanceof long[]) {
+            return ((long[]) array)[index];
+        } else if (array instanceof int[]) {
+            return ((int[]) array)[index];
+        } else if (array instanceof short[]) {
+            return ((short[]) array)[index];
+        } else if (array instanceof char[]) {
+            return ((char[]) array)[index];
+        } else if (array instanceof byte[]) {
+            return ((byte[]) array)[index];
+        } else {
+            return ((boolean[]) array)[index] ? 1 : 0;
+        }
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Returns the smallest value that is not {@code NaN} or {@code NaN} if there is no such value.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the number of values in each of {@link #BUCKETS} equally wide buckets between the minimum and maximum.
+     */
+    public long[] getHistogram() {
+        return histogram;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Returns an array of the summarized array's type with every {@link #getStride()}-th element.
+     */
+    public Object getSubsample() {
+        return subsample;
+    }
+
+    @Override
+    public String toString() {
+        return "Summary{type=" + type
+                + ", length=" + length
+                + ", checksum=" + Long.toHexString(checksum)
+                + ", min=" + min
+                + ", max=" + max
+                + ", histogram=" + Arrays.toString(histogram)
+                + ", stride=" + stride
+                + "}";
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlockFormatTest {
+
+    @Test
+    public void testSnappyRoundTrip() throws Exception {
+        assertRoundTrip(BlockFormat.SNAPPY, compressible(64 * 1024), BlockFormat.SNAPPY);
+    }
+
+    @Test
+    public void testDeflateRoundTrip() throws Exception {
+        assertRoundTrip(BlockFormat.DEFLATE, compressible(64 * 1024), BlockFormat.DEFLATE);
+    }
+
+    @Test
+    public void testStoredRoundTrip() throws Exception {
+        assertRoundTrip(BlockFormat.STORED, compressible(1024), BlockFormat.STORED);
+    }
+
+    @Test
+    public void testIncompressibleIsStored() throws Exception {
+        byte[] bytes = new byte[4096];
+        new Random(42).nextBytes(bytes);
+        assertRoundTrip(BlockFormat.SNAPPY, bytes, BlockFormat.STORED);
+        assertRoundTrip(BlockFormat.DEFLATE, bytes, BlockFormat.STORED);
+    }
+
+    @Test
+    public void testEncodeUsesLengthOnly() throws Exception {
+        byte[] bytes = compressible(1024);
+        byte[] block = BlockFormat.encode(BlockFormat.DEFLATE, bytes, 100);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+        byte codec = in.readByte();
+        int length = in.readInt();
+        byte[] compressed = new byte[in.readInt()];
+        in.readFully(compressed);
+        byte[] expected = new byte[100];
+        System.arraycopy(bytes, 0, expected, 0, expected.length);
+        assertArrayEquals(expected, BlockFormat.decode(codec, length, compressed));
+    }
+
+    @Test
+    public void testCodecNames() {
+        assertEquals(BlockFormat.SNAPPY, BlockFormat.codec("snappy"));
+        assertEquals(BlockFormat.DEFLATE, BlockFormat.codec("deflate"));
+        assertEquals(BlockFormat.STORED, BlockFormat.codec("none"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCodecName() {
+        BlockFormat.codec("lz4");
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownCodec() throws Exception {
+        BlockFormat.decode((byte) 42, 0, new byte[0]);
+    }
+
+    @Test
+    public void testHeader() {
+        assertTrue(BlockFormat.isBlockFormat(BlockFormat.header()));
+        assertTrue(!BlockFormat.isBlockFormat(new byte[BlockFormat.header().length]));
+    }
+
+    private static void assertRoundTrip(byte codec, byte[] bytes, byte expectedCodec) throws IOException {
+        byte[] block = BlockFormat.encode(codec, bytes, bytes.length);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+        assertEquals(expectedCodec, in.readByte());
+        int length = in.readInt();
+        assertEquals(bytes.length, length);
+        byte[] compressed = new byte[in.readInt()];
+        in.readFully(compressed);
+        assertEquals(-1, in.read());
+        if (expectedCodec != BlockFormat.STORED) {
+            assertTrue(compressed.length < bytes.length);
+        }
+        assertArrayEquals(bytes, BlockFormat.decode(expectedCodec, length, compressed));
+    }
+
+    static byte[] compressible(int length) {
+        byte[] bytes = new byte[length];
+        for (int index = 0; index < length; index++) {
+            bytes[index] = (byte) (index % 251 < 128 ? index % 7 : 'a' + index % 13);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BlockInputStreamTest {
+
+    private static final int BLOCKS = 50, BLOCK_SIZE = 10 * 1024;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSequential() throws Exception {
+        assertBlocks(BlockFormat.SNAPPY, null);
+        assertBlocks(BlockFormat.DEFLATE, null);
+    }
+
+    @Test
+    public void testReadAhead() throws Exception {
+        // More blocks than are read ahead such that pending blocks are queued and consumed in order.
+        assertBlocks(BlockFormat.SNAPPY, executor);
+        assertBlocks(BlockFormat.DEFLATE, executor);
+    }
+
+    @Test
+    public void testTruncatedFinalBlock() throws Exception {
+        assertTruncated(null);
+    }
+
+    @Test
+    public void testTruncatedFinalBlockWithReadAhead() throws Exception {
+        assertTruncated(executor);
+    }
+
+    @Test
+    public void testTruncatedBlockHeader() throws Exception {
+        byte[] complete = BlockFormat.encode(BlockFormat.DEFLATE, block(0), BLOCK_SIZE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(complete);
+        out.write(complete, 0, 3);
+        InputStream in = new BlockInputStream(new ByteArrayInputStream(out.toByteArray()), executor);
+        try {
+            assertArrayEquals(block(0), readFully(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testOpen() throws Exception {
+        File file = File.createTempFile("jam", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(BlockFormat.header());
+                out.write(BlockFormat.encode(BlockFormat.SNAPPY, block(0), BLOCK_SIZE));
+            } finally {
+                out.close();
+            }
+            InputStream in = BlockFormat.open(file, executor);
+            try {
+                assertTrue(in instanceof BlockInputStream);
+                assertArrayEquals(block(0), readFully(in));
+            } finally {
+                in.close();
+            }
+            out = new FileOutputStream(file);
+            try {
+                out.write(block(1), 0, 2);
+            } finally {
+                out.close();
+            }
+            in = BlockFormat.open(file, executor);
+            try {
+                assertFalse(in instanceof BlockInputStream);
+                assertEquals(2, readFully(in).length);
+            } finally {
+                in.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertBlocks(byte codec, ExecutorService executor) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(), expected = new ByteArrayOutputStream();
+        for (int index = 0; index < BLOCKS; index++) {
+            out.write(BlockFormat.encode(codec, block(index), BLOCK_SIZE));
+            expected.write(block(index));
+        }
+        InputStream in = new BlockInputStream(new ByteArrayInputStream(out.toByteArray()), executor);
+        try {
+            assertArrayEquals(expected.toByteArray(), readFully(in));
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void assertTruncated(ExecutorService executor) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(), expected = new ByteArrayOutputStream();
+        for (int index = 0; index < BLOCKS; index++) {
+            out.write(BlockFormat.encode(BlockFormat.SNAPPY, block(index), BLOCK_SIZE));
+            expected.write(block(index));
+        }
+        byte[] last = BlockFormat.encode(BlockFormat.SNAPPY, block(BLOCKS), BLOCK_SIZE);
+        out.write(last, 0, last.length / 2);
+        InputStream in = new BlockInputStream(new ByteArrayInputStream(out.toByteArray()), executor);
+        try {
+            assertArrayEquals(expected.toByteArray(), readFully(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] block(int index) {
+        byte[] bytes = BlockFormatTest.compressible(BLOCK_SIZE);
+        for (int offset = 0; offset < bytes.length; offset += 64) {
+            bytes[offset] = (byte) index;
+        }
+        return bytes;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3000];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadsTest {
+
+    private static final String[] TYPES = {"double[]"};
+
+    @Test
+    public void testSmallPayloadIsNotDeduplicated() {
+        Payloads payloads = new Payloads();
+        Observation observation = observation(payload(Payloads.MIN_PAYLOAD_SIZE - 1, 1));
+        assertSame(observation, payloads.deduplicate(observation));
+    }
+
+    @Test
+    public void testRepeatedPayloadIsReferenced() {
+        Payloads writer = new Payloads(), reader = new Payloads();
+        byte[] payload = payload(1024, 1);
+        Observation first = writer.deduplicate(observation(payload));
+        assertFalse(first.value(0).isReference());
+        writer.written(first);
+        Observation second = writer.deduplicate(observation(payload));
+        assertTrue(second.value(0).isReference());
+        assertArrayEquals(first.value(0).getDigest(), second.value(0).getDigest());
+        assertArrayEquals(payload, reader.resolve(first).value(0).getArguments());
+        assertArrayEquals(payload, reader.resolve(second).value(0).getArguments());
+        assertNull(reader.resolve(second).value(0).getDigest());
+    }
+
+    @Test
+    public void testPayloadIsOnlyReferencedOnceWritten() {
+        Payloads payloads = new Payloads();
+        byte[] payload = payload(1024, 1);
+        assertFalse(payloads.deduplicate(observation(payload)).value(0).isReference());
+        Observation observation = payloads.deduplicate(observation(payload));
+        assertFalse(observation.value(0).isReference());
+        payloads.written(observation);
+        assertTrue(payloads.deduplicate(observation(payload)).value(0).isReference());
+    }
+
+    @Test
+    public void testPayloadIsReferencedWithinObservation() {
+        Payloads writer = new Payloads(), reader = new Payloads();
+        byte[] payload = payload(1024, 1);
+        Observation observation = writer.deduplicate(observation(payload, payload));
+        assertFalse(observation.value(0).isReference());
+        assertTrue(observation.value(1).isReference());
+        Observation resolved = reader.resolve(observation);
+        assertArrayEquals(payload, resolved.value(0).getArguments());
+        assertArrayEquals(payload, resolved.value(1).getArguments());
+    }
+
+    @Test
+    public void testResetForgetsWrittenPayloads() {
+        Payloads payloads = new Payloads();
+        byte[] payload = payload(1024, 1);
+        payloads.written(payloads.deduplicate(observation(payload)));
+        payloads.reset();
+        assertFalse(payloads.deduplicate(observation(payload)).value(0).isReference());
+    }
+
+    @Test
+    public void testDistinctPayloadsAreNotReferenced() {
+        Payloads payloads = new Payloads();
+        payloads.written(payloads.deduplicate(observation(payload(1024, 1))));
+        assertFalse(payloads.deduplicate(observation(payload(1024, 2))).value(0).isReference());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnresolvedReference() {
+        Payloads writer = new Payloads();
+        byte[] payload = payload(1024, 1);
+        writer.written(writer.deduplicate(observation(payload)));
+        new Payloads().resolve(writer.deduplicate(observation(payload)));
+    }
+
+    private static Observation observation(byte[]... payloads) {
+        String[] keys = new String[payloads.length];
+        SerializedValue[] values = new SerializedValue[payloads.length];
+        for (int index = 0; index < payloads.length; index++) {
+            keys[index] = "value" + index;
+            values[index] = new SerializedValue(TYPES, payloads[index]);
+        }
+        return new Observation("foo", keys, values);
+    }
+
+    private static byte[] payload(int length, int value) {
+        byte[] payload = new byte[length];
+        Arrays.fill(payload, (byte) value);
+        return payload;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 INAOS GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.inaos.jam.observation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SpillTest {
+
+    private File folder, file;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = File.createTempFile("jam", ".spill");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IOException("Could not create " + folder);
+        }
+        file = new File(folder, "sample.bin.spill");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        folder.delete();
+    }
+
+    @Test
+    public void testArraysAreAppended() throws Exception {
+        double[] doubles = new double[100 * 1000];
+        for (int index = 0; index < doubles.length; index++) {
+            doubles[index] = index;
+        }
+        boolean[] booleans = {true, false, true};
+        Spill first = Spill.write(file, doubles), second = Spill.write(file, booleans);
+        assertEquals(0, first.getOffset());
+        assertEquals(doubles.length * 8L, second.getOffset());
+        assertEquals("sample.bin.spill", second.getFile());
+        assertArrayEquals(doubles, (double[]) first.load(folder), 0d);
+        assertTrue(Arrays.equals(booleans, (boolean[]) second.load(folder)));
+    }
+
+    @Test
+    public void testSpilledArgumentsAreLoaded() throws Exception {
+        int[] ints = {1, 2, 3};
+        Object[] arguments = {"foo", Spill.write(file, ints)};
+        Object[] loaded = Spill.load(arguments, folder);
+        assertEquals("foo", loaded[0]);
+        assertArrayEquals(ints, (int[]) loaded[1]);
+        assertTrue(arguments[1] instanceof Spill);
+    }
+
+    @Test
+    public void testArgumentsWithoutSpillAreRetained() throws Exception {
+        Object[] arguments = {"foo", new int[]{1}};
+        assertSame(arguments, Spill.load(arguments, folder));
+    }
+
+    @Test
+    public void testTruncatedSpillIsUnavailable() throws Exception {
+        Spill spill = Spill.write(file, new long[]{1, 2});
+        assertTrue(spill.isAvailable(folder));
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(15);
+        } finally {
+            out.close();
+        }
+        assertFalse(spill.isAvailable(folder));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedSpillIsNotLoaded() throws Exception {
+        Spill spill = Spill.write(file, new long[]{1, 2});
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(15);
+        } finally {
+            out.close();
+        }
+        spill.load(folder);
+    }
+}
@@ -21,16 +21,26 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
+import com.inaos.jam.observation.BlockFormat;
 import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.Payloads;
+import com.inaos.jam.observation.kryo.Deltas;
+import com.inaos.jam.observation.kryo.KryoManifest;
+import com.inaos.jam.observation.kryo.ObservationSerializer;
 
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Main {
 
-    @Parameter(names = {"--source", "-s"}, description = "Input file", required = true)
+    @Parameter(names = {"--source", "-s"}, description = "Input file")
     private File source;
 
     @Parameter(names = {"--target", "-t"}, description = "Output folder")
@@ -39,31 +49,123 @@ public class Main {
     @Parameter(names = {"--dispatcher", "-d"}, description = "Generate dispatcher classes")
     private boolean dispatcher;
 
+    @Parameter(names = {"--merge", "-m"}, description = "Merge the segment files <source>.<index> of a sharded capture into this sample file")
+    private File merge;
+
+    @Parameter(names = {"--tap"}, description = "Print the observations that an agent streams to this loopback port")
+    private Integer tap;
+
+    @Parameter(names = {"--manifest"}, description = "Registration manifest of the observations, defaults to <source>.manifest if it exists")
+    private File manifest;
+
+    @Parameter(names = {"--generate-manifest"}, description = "Write a registration manifest for the classes that the source's observations name")
+    private File generateManifest;
+
     public static void main(String... args) throws Exception {
         Main command = new Main();
         JCommander.newBuilder().addObject(command).build().parse(args);
 
+        KryoManifest manifest = command.manifest != null
+                ? KryoManifest.read(command.manifest)
+                : command.source == null ? null : KryoManifest.forSample(command.source);
+        Kryo kryo = newKryo(manifest, false);
+
+        if (command.tap != null) {
+            long count = new TapConsumer(kryo).consume(command.tap, System.out);
+            System.out.println("Received " + count + " observations");
+            return;
+        }
+
+        ExecutorService decompressors = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            process(command, manifest, kryo, decompressors);
+        } finally {
+            decompressors.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates a Kryo instance for a single stream of observations. If {@code dictionary} is set, observations are
+     * written with a dictionary of their strings.
+     */
+    static Kryo newKryo(KryoManifest manifest, boolean dictionary) {
+        Kryo kryo = manifest == null ? new Kryo() : manifest.newKryo();
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        kryo.addDefaultSerializer(Observation.class, new ObservationSerializer(dictionary));
+        return kryo;
+    }
+
+    private static void process(Main command, KryoManifest manifest, Kryo kryo, ExecutorService decompressors) throws Exception {
+        if (command.source != null && command.merge != null) {
+            File[] shards = ShardMerger.shardsOf(command.source);
+            if (shards.length == 0) {
+                throw new IllegalArgumentException("No segment files found for: " + command.source);
+            }
+            long count = new ShardMerger(manifest, decompressors).merge(shards, command.merge);
+            System.out.println("Merged " + count + " observations of " + shards.length + " segments into " + command.merge);
+            if (manifest != null) {
+                manifest.write(KryoManifest.sidecarOf(command.merge));
+            }
+            copySpill(command.source, command.merge);
+            command.source = command.merge;
+        }
+
         if (command.source == null || !command.source.isFile()) {
             throw new IllegalArgumentException("No source file given or not a file: " + command.source);
         } else if (command.target == null || !command.target.isDirectory()) {
             throw new IllegalArgumentException("No target folder given or not a file: " + command.target);
         }
 
-        Kryo kryo = new Kryo();
-        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
-
         DispatcherGenerator dispatcherGenerator = new DispatcherGenerator();
+        ManifestGenerator manifestGenerator = command.generateManifest == null ? null : new ManifestGenerator(manifest, command.source.getAbsoluteFile().getParentFile());
 
-        Input in = new Input(new FileInputStream(command.source));
+        Payloads payloads = new Payloads();
+        Input in = new Input(BlockFormat.open(command.source, decompressors));
         try {
             while (!Thread.interrupted() && !in.eof()) {
-                Observation observation = kryo.readObject(in, Observation.class);
+                Observation observation = Deltas.resolve(payloads.resolve(kryo.readObject(in, Observation.class)));
                 if (command.dispatcher) {
                     dispatcherGenerator.generateDispatcher(observation, command.target);
                 }
+                if (manifestGenerator != null) {
+                    for (int index = 0; index < observation.size(); index++) {
+                        manifestGenerator.add(observation.value(index));
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        if (manifestGenerator != null) {
+            KryoManifest generated = manifestGenerator.generate();
+            generated.write(command.generateManifest);
+            System.out.println("Wrote registration manifest to " + command.generateManifest);
+        }
+    }
+
+    /**
+     * Copies the spill file of a capture next to a merged sample file if it is written to another folder as spilled
+     * arguments are read from the folder of their sample file.
+     */
+    private static void copySpill(File source, File merge) throws IOException {
+        File spill = new File(source.getPath() + ".spill"), copy = new File(merge.getAbsoluteFile().getParentFile(), spill.getName());
+        if (!spill.isFile() || copy.getAbsoluteFile().equals(spill.getAbsoluteFile())) {
+            return;
+        }
+        FileChannel in = new FileInputStream(spill).getChannel();
+        try {
+            FileChannel out = new FileOutputStream(copy).getChannel();
+            try {
+                for (long position = 0, size = in.size(); position < size; ) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            } finally {
+                out.close();
             }
         } finally {
             in.close();
         }
+        System.out.println("Copied spill file to " + copy);
     }
 }
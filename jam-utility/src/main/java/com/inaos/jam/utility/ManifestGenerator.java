@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.utility;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+import com.inaos.jam.observation.SerializedValue;
+import com.inaos.jam.observation.Spill;
+import com.inaos.jam.observation.kryo.ByteBufferSerializer;
+import com.inaos.jam.observation.kryo.KryoManifest;
+import com.inaos.jam.observation.kryo.KryoSerializer;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates a registration manifest by decoding the captured values of a sample file and collecting all classes
+ * that are written by name. Frequent classes receive the smaller ids. If the sample file was written with a
+ * manifest, its entries are retained. Arguments that were streamed to a spill file are reported if the spill file
+ * within the folder of the sample file does not contain them.
+ */
+class ManifestGenerator {
+
+    private final KryoManifest manifest;
+
+    private final KryoSerializer serializer;
+
+    private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+    private final File folder;
+
+    private long failures, unavailable;
+
+    ManifestGenerator(KryoManifest manifest, File folder) {
+        this.folder = folder;
+        this.manifest = manifest == null ? new KryoManifest() : manifest;
+        Kryo kryo = manifest == null ? new RecordingKryo() : new RecordingKryo(manifest);
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        kryo.addDefaultSerializer(ByteBuffer.class, new ByteBufferSerializer());
+        serializer = new KryoSerializer(kryo);
+    }
+
+    void add(SerializedValue value) {
+        if (value == null) {
+            return;
+        }
+        try {
+            for (Object argument : serializer.resolveArguments(value)) {
+                if (argument instanceof Spill && !((Spill) argument).isAvailable(folder) && unavailable++ == 0) {
+                    System.err.println("Spill file does not contain spilled argument: " + argument);
+                }
+            }
+        } catch (KryoException e) {
+            if (failures++ == 0) {
+                System.err.println("Could not decode captured value, classes of the application might be missing: " + e.getMessage());
+            }
+        }
+    }
+
+    KryoManifest generate() {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> left, Map.Entry<String, Integer> right) {
+                int comparison = right.getValue().compareTo(left.getValue());
+                return comparison == 0 ? left.getKey().compareTo(right.getKey()) : comparison;
+            }
+        });
+        for (Map.Entry<String, Integer> entry : entries) {
+            // Classes that are always registered keep their reference tracking.
+            if (!manifest.contains(entry.getKey())) {
+                manifest.add(entry.getKey(), false);
+            }
+        }
+        if (failures > 0) {
+            System.err.println("Skipped " + failures + " captured values that could not be decoded");
+        }
+        if (unavailable > 0) {
+            System.err.println("Found " + unavailable + " spilled arguments that cannot be read from their spill file");
+        }
+        return manifest;
+    }
+
+    private class RecordingKryo extends Kryo {
+
+        RecordingKryo() {
+        }
+
+        RecordingKryo(KryoManifest manifest) {
+            super(manifest.classResolver(), manifest.referenceResolver());
+        }
+
+        @Override
+        public Registration readClass(Input input) {
+            Registration registration = super.readClass(input);
+            if (registration != null && registration.getId() == DefaultClassResolver.NAME) {
+                String name = registration.getType().getName();
+                Integer count = counts.get(name);
+                counts.put(name, count == null ? 1 : count + 1);
+            }
+            return registration;
+        }
+    }
+}
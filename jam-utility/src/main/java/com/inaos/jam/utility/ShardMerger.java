@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.utility;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.observation.BlockFormat;
+import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.kryo.KryoManifest;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
+
+/**
+ * Merges the segment files of a sharded capture into a single sample file that is ordered by commit time. Only the
+ * head record of every segment is held in memory. Payload references are copied as they are since they are resolved
+ * by digest and the order within every segment is preserved. A reader of the merged file therefore retains up to
+ * {@link com.inaos.jam.observation.Payloads#MAX_RETAINED_BYTES} of payloads for every merged segment. As every segment
+ * has its own dictionary of strings, every segment is read by its own Kryo instance.
+ */
+class ShardMerger {
+
+    private final KryoManifest manifest;
+
+    private final ExecutorService decompressors;
+
+    ShardMerger(KryoManifest manifest, ExecutorService decompressors) {
+        this.manifest = manifest;
+        this.decompressors = decompressors;
+    }
+
+    static File[] shardsOf(final File sample) {
+        final Pattern pattern = Pattern.compile(Pattern.quote(sample.getName()) + "\\.\\d+");
+        File folder = sample.getAbsoluteFile().getParentFile();
+        File[] shards = folder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && pattern.matcher(file.getName()).matches();
+            }
+        });
+        return shards == null ? new File[0] : shards;
+    }
+
+    long merge(File[] shards, File target) throws IOException {
+        List<Input> inputs = new ArrayList<Input>();
+        Output out = new Output(new FileOutputStream(target));
+        Kryo kryo = Main.newKryo(manifest, true);
+        long count = 0;
+        try {
+            PriorityQueue<Head> heads = new PriorityQueue<Head>();
+            for (int index = 0; index < shards.length; index++) {
+                Input in = new Input(BlockFormat.open(shards[index], decompressors));
+                inputs.add(in);
+                Head head = new Head(index, in, Main.newKryo(manifest, false));
+                if (head.next()) {
+                    heads.add(head);
+                }
+            }
+            while (!heads.isEmpty()) {
+                Head head = heads.poll();
+                kryo.writeObject(out, head.observation);
+                count++;
+                if (head.next()) {
+                    heads.add(head);
+                }
+            }
+        } finally {
+            out.close();
+            for (Input in : inputs) {
+                in.close();
+            }
+        }
+        return count;
+    }
+
+    private static class Head implements Comparable<Head> {
+
+        private final int shard;
+
+        private final Input in;
+
+        private final Kryo kryo;
+
+        private long timestamp, sequence;
+
+        private Observation observation;
+
+        Head(int shard, Input in, Kryo kryo) {
+            this.shard = shard;
+            this.in = in;
+            this.kryo = kryo;
+        }
+
+        boolean next() {
+            if (in.eof()) {
+                return false;
+            }
+            timestamp = in.readLong();
+            sequence = in.readLong();
+            observation = kryo.readObject(in, Observation.class);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            // Timestamps stem from System.nanoTime() and are compared by their difference to tolerate numeric overflow.
+            long difference = timestamp - other.timestamp;
+            if (difference != 0) {
+                return difference < 0 ? -1 : 1;
+            } else if (shard != other.shard) {
+                return shard < other.shard ? -1 : 1;
+            } else {
+                return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.utility;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.SerializedValue;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Consumes the observations that an agent streams to a loopback port when it is started with {@code tap=<port>}.
+ */
+class TapConsumer {
+
+    private final Kryo kryo;
+
+    TapConsumer(Kryo kryo) {
+        this.kryo = kryo;
+    }
+
+    long consume(int port, PrintStream out) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        long count = 0;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (!Thread.interrupted()) {
+                byte[] frame;
+                try {
+                    frame = new byte[in.readInt()];
+                } catch (EOFException e) {
+                    break;
+                }
+                in.readFully(frame);
+                Observation observation = kryo.readObject(new Input(frame), Observation.class);
+                StringBuilder sb = new StringBuilder().append("Observation for '").append(observation.getName()).append("'");
+                for (int index = 0; index < observation.size(); index++) {
+                    SerializedValue value = observation.value(index);
+                    sb.append(" with key '").append(observation.key(index)).append("'");
+                    if (value != null) {
+                        sb.append(" of types ").append(Arrays.toString(value.getTypes()))
+                                .append(" (").append(value.getArguments().length).append(" bytes)");
+                    }
+                }
+                out.println(sb);
+                count++;
+            }
+        } finally {
+            socket.close();
+        }
+        return count;
+    }
+}
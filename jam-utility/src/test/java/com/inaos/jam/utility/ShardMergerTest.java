@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2018 INAOS GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.inaos.jam.utility;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.inaos.jam.observation.Observation;
+import com.inaos.jam.observation.Payloads;
+import com.inaos.jam.observation.SerializedValue;
+import com.inaos.jam.observation.kryo.KryoSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ShardMergerTest {
+
+    private File folder;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = File.createTempFile("jam", ".shards");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IOException("Could not create " + folder);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void testSegmentsAreFoundByIndex() throws Exception {
+        File sample = new File(folder, "sample.bin");
+        for (String name : new String[]{"sample.bin.0", "sample.bin.12", "sample.bin.spill", "sample.bin.manifest", "other.bin.1"}) {
+            new FileOutputStream(new File(folder, name)).close();
+        }
+        List<String> names = new ArrayList<String>();
+        for (File shard : ShardMerger.shardsOf(sample)) {
+            names.add(shard.getName());
+        }
+        Collections.sort(names);
+        assertEquals(Arrays.asList("sample.bin.0", "sample.bin.12"), names);
+    }
+
+    @Test
+    public void testMergeOrdersByTimestampSegmentAndSequence() throws Exception {
+        File[] shards = {new File(folder, "sample.bin.0"), new File(folder, "sample.bin.1"), new File(folder, "sample.bin.2")};
+        write(shards[0], new long[]{10, 30, 30}, "a", "d", "e");
+        write(shards[1], new long[]{20, 30}, "b", "f");
+        write(shards[2], new long[0]);
+        File merged = new File(folder, "merged.bin");
+        assertEquals(5, new ShardMerger(null, null).merge(shards, merged));
+        assertEquals(Arrays.asList("a", "b", "d", "e", "f"), names(merged));
+    }
+
+    @Test
+    public void testMergeTranslatesDictionaryOfEverySegment() throws Exception {
+        File[] shards = {new File(folder, "sample.bin.0"), new File(folder, "sample.bin.1")};
+        // Both segments define the same strings in a different order such that their dictionary ids differ.
+        write(shards[0], new long[]{10, 30, 50}, "a", "b", "a");
+        write(shards[1], new long[]{20, 40, 60}, "b", "a", "b");
+        File merged = new File(folder, "merged.bin");
+        assertEquals(6, new ShardMerger(null, null).merge(shards, merged));
+        assertEquals(Arrays.asList("a", "b", "b", "a", "a", "b"), names(merged));
+    }
+
+    @Test
+    public void testMergeToleratesTimestampOverflow() throws Exception {
+        File[] shards = {new File(folder, "sample.bin.0"), new File(folder, "sample.bin.1")};
+        write(shards[0], new long[]{Long.MIN_VALUE + 5}, "after");
+        write(shards[1], new long[]{Long.MAX_VALUE - 5}, "before");
+        File merged = new File(folder, "merged.bin");
+        assertEquals(2, new ShardMerger(null, null).merge(shards, merged));
+        assertEquals(Arrays.asList("before", "after"), names(merged));
+    }
+
+    @Test
+    public void testMergeResolvesPayloadReferencesOfEverySegment() throws Exception {
+        File[] shards = {new File(folder, "sample.bin.0"), new File(folder, "sample.bin.1")};
+        double[] shared = values(1), own = values(2);
+        // Both segments define the shared payload themselves, the later segment's definition is merged first.
+        write(shards[0], new long[]{30, 50, 60}, new String[]{"a", "b", "c"}, shared, shared, own);
+        write(shards[1], new long[]{10, 20, 40}, new String[]{"d", "e", "f"}, shared, shared, shared);
+        File merged = new File(folder, "merged.bin");
+        assertEquals(6, new ShardMerger(null, null).merge(shards, merged));
+        Kryo kryo = Main.newKryo(null, false);
+        KryoSerializer serializer = new KryoSerializer();
+        Payloads payloads = new Payloads();
+        List<String> names = new ArrayList<String>();
+        int references = 0;
+        Input in = new Input(new FileInputStream(merged));
+        try {
+            while (!in.eof()) {
+                Observation observation = kryo.readObject(in, Observation.class);
+                if (observation.value("arguments").isReference()) {
+                    references++;
+                }
+                observation = payloads.resolve(observation);
+                names.add(observation.getName());
+                double[] expected = observation.getName().equals("c") ? own : shared;
+                assertArrayEquals(expected, (double[]) serializer.resolveArguments(observation.value("arguments"))[0], 0d);
+            }
+        } finally {
+            in.close();
+        }
+        assertEquals(Arrays.asList("d", "e", "a", "f", "b", "c"), names);
+        assertEquals(3, references);
+    }
+
+    private static double[] values(int seed) {
+        double[] values = new double[Payloads.MIN_PAYLOAD_SIZE];
+        for (int index = 0; index < values.length; index++) {
+            values[index] = seed * index;
+        }
+        return values;
+    }
+
+    // Every segment deduplicates its payloads by itself as by the agent.
+    private static void write(File shard, long[] timestamps, String[] names, double[]... arguments) throws IOException {
+        Kryo kryo = Main.newKryo(null, true);
+        KryoSerializer serializer = new KryoSerializer();
+        Payloads payloads = new Payloads();
+        Output out = new Output(new FileOutputStream(shard));
+        try {
+            for (int index = 0; index < timestamps.length; index++) {
+                Observation observation = payloads.deduplicate(new Observation(names[index],
+                        new String[]{"arguments"},
+                        new SerializedValue[]{serializer.make(double[].class, arguments[index])}));
+                out.writeLong(timestamps[index]);
+                out.writeLong(index);
+                kryo.writeObject(out, observation);
+                payloads.written(observation);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    // Every segment is written with its own dictionary of strings as by the agent.
+    private static void write(File shard, long[] timestamps, String... names) throws IOException {
+        Kryo kryo = Main.newKryo(null, true);
+        KryoSerializer serializer = new KryoSerializer();
+        Output out = new Output(new FileOutputStream(shard));
+        try {
+            for (int index = 0; index < timestamps.length; index++) {
+                out.writeLong(timestamps[index]);
+                out.writeLong(index);
+                kryo.writeObject(out, new Observation(names[index],
+                        new String[]{"arguments"},
+                        new SerializedValue[]{serializer.make(String.class, names[index])}));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<String> names(File sample) throws IOException {
+        Kryo kryo = Main.newKryo(null, false);
+        KryoSerializer serializer = new KryoSerializer();
+        List<String> names = new ArrayList<String>();
+        Input in = new Input(new FileInputStream(sample));
+        try {
+            while (!in.eof()) {
+                Observation observation = kryo.readObject(in, Observation.class);
+                assertEquals(observation.getName(), serializer.resolveArguments(observation.value("arguments"))[0]);
+                names.add(observation.getName());
+            }
+        } finally {
+            in.close();
+        }
+        return names;
+    }
+}